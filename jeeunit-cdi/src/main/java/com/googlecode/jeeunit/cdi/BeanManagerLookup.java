@@ -17,8 +17,11 @@
 
 package com.googlecode.jeeunit.cdi;
 
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.WeakHashMap;
 
 import javax.enterprise.inject.spi.BeanManager;
 import javax.naming.InitialContext;
@@ -28,6 +31,11 @@ import com.googlecode.jeeunit.cdi.spi.BeanManagerProvider;
 
 /**
  * Locates a CDI BeanManager, either via JNDI or using the Java SE ServiceLoader.
+ * <p>
+ * The result is cached per context class loader, i.e. per deployment. Containers call
+ * {@link #invalidate()} or {@link #invalidate(ClassLoader)} on shutdown or undeployment.
+ * The bean manager is only weakly referenced by the cache, since it strongly references the
+ * class loader, which would otherwise never be removed from the cache.
  * @author hwellmann
  *
  */
@@ -36,7 +44,56 @@ public class BeanManagerLookup {
     private static final String BEAN_MANAGER_JNDI = "java:comp/BeanManager";
     private static final String BEAN_MANAGER_JNDI_FALLBACK = "java:comp/env/BeanManager";
 
-    
+    private static Map<ClassLoader, WeakReference<BeanManager>> beanManagers =
+        new WeakHashMap<ClassLoader, WeakReference<BeanManager>>();
+
+    /**
+     * Returns the cached bean manager for the current context class loader, looking it up
+     * on the first call.
+     * 
+     * @return bean manager, or null
+     */
+    public static BeanManager getBeanManager() {
+        ClassLoader cl = getContextClassLoader();
+        synchronized (beanManagers) {
+            WeakReference<BeanManager> ref = beanManagers.get(cl);
+            BeanManager mgr = (ref == null) ? null : ref.get();
+            if (mgr == null) {
+                mgr = lookupBeanManager();
+                if (mgr != null) {
+                    beanManagers.put(cl, new WeakReference<BeanManager>(mgr));
+                }
+            }
+            return mgr;
+        }
+    }
+
+    /**
+     * Removes the cached bean manager for the given class loader.
+     * 
+     * @param cl
+     *            class loader of a deployment
+     */
+    public static void invalidate(ClassLoader cl) {
+        synchronized (beanManagers) {
+            beanManagers.remove(cl);
+        }
+    }
+
+    /**
+     * Removes all cached bean managers.
+     */
+    public static void invalidate() {
+        synchronized (beanManagers) {
+            beanManagers.clear();
+        }
+    }
+
+    private static ClassLoader getContextClassLoader() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return (cl == null) ? BeanManagerLookup.class.getClassLoader() : cl;
+    }
+
     /**
      * Tries to look up bean manager first from JNDI, and failing that
      * from any service providers that might be registered using
@@ -44,7 +101,7 @@ public class BeanManagerLookup {
      * 
      * @return bean manager, or null
      */
-    public static BeanManager getBeanManager() {        
+    private static BeanManager lookupBeanManager() {
         BeanManager mgr = getBeanManagerFromJndi();
         if (mgr == null) {
             ServiceLoader<BeanManagerProvider> loader = ServiceLoader
@@ -17,21 +17,38 @@
  */
 package com.googlecode.jeeunit.cdi.impl;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.InjectionTarget;
 
 import com.googlecode.jeeunit.cdi.BeanManagerLookup;
-import com.googlecode.jeeunit.spi.Injector;
+import com.googlecode.jeeunit.spi.ReleasingInjector;
 
 /**
  * Obtains a CDI {@link BeanManager} and injects fields into the given target.
+ * <p>
+ * Injection targets are cached per class. The creational context of each target is kept
+ * until the target is released, so that dependent objects created for the injection can be
+ * destroyed.
  * 
  * @author hwellmann
  *
  */
-public class CdiInjector implements Injector {
+public class CdiInjector implements ReleasingInjector {
+
+    @SuppressWarnings("rawtypes")
+    private ConcurrentMap<Class<?>, InjectionTarget> injectionTargets =
+        new ConcurrentHashMap<Class<?>, InjectionTarget>();
+
+    @SuppressWarnings("rawtypes")
+    private Map<Object, CreationalContext> contexts =
+        new IdentityHashMap<Object, CreationalContext>();
 
     /**
      * Injects dependencies into the given target object whose lifecycle is not managed by 
@@ -42,9 +59,42 @@ public class CdiInjector implements Injector {
     @Override
     public void injectFields(Object target) {
         BeanManager mgr = BeanManagerLookup.getBeanManager();
-        AnnotatedType annotatedType = mgr.createAnnotatedType(target.getClass());
-        InjectionTarget injectionTarget = mgr.createInjectionTarget(annotatedType);
+        InjectionTarget injectionTarget = getInjectionTarget(mgr, target.getClass());
         CreationalContext context = mgr.createCreationalContext(null);
         injectionTarget.inject(target, context);
+        synchronized (contexts) {
+            contexts.put(target, context);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private InjectionTarget getInjectionTarget(BeanManager mgr, Class<?> klass) {
+        InjectionTarget injectionTarget = injectionTargets.get(klass);
+        if (injectionTarget == null) {
+            AnnotatedType annotatedType = mgr.createAnnotatedType(klass);
+            injectionTarget = mgr.createInjectionTarget(annotatedType);
+            InjectionTarget existing = injectionTargets.putIfAbsent(klass, injectionTarget);
+            if (existing != null) {
+                injectionTarget = existing;
+            }
+        }
+        return injectionTarget;
+    }
+
+    /**
+     * Releases the creational context of the given target, destroying all dependent objects
+     * injected into it.
+     * @param target  an object passed to {@link #injectFields(Object)}
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void release(Object target) {
+        CreationalContext context;
+        synchronized (contexts) {
+            context = contexts.remove(target);
+        }
+        if (context != null) {
+            context.release();
+        }
     }
 }
@@ -19,6 +19,7 @@ package com.googlecode.jeeunit.cdi.impl;
 
 import javax.servlet.annotation.WebServlet;
 
+import com.googlecode.jeeunit.cdi.BeanManagerLookup;
 import com.googlecode.jeeunit.impl.AbstractTestRunnerServlet;
 import com.googlecode.jeeunit.spi.Injector;
 
@@ -36,4 +37,10 @@ public class TestRunnerServlet extends AbstractTestRunnerServlet {
     protected Injector createInjector() {
         return new CdiInjector();
     }
+
+    @Override
+    public void destroy() {
+        BeanManagerLookup.invalidate(Thread.currentThread().getContextClassLoader());
+        super.destroy();
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.glassfish;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Immutable model of the parts of a GlassFish {@code domain.xml} used by jeeunit, read with a
+ * streaming parser. Parsed models are cached by file, path and modification time.
+ * <p>
+ * Only the network listeners of the {@code server-config} configuration are included, since
+ * the listeners of other configurations such as {@code default-config} are templates which
+ * are not used by the embedded server.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class DomainConfiguration {
+
+    private static final String CONFIG = "config";
+    private static final String SERVER_CONFIG = "server-config";
+
+    private static Map<String, DomainConfiguration> cache = new HashMap<String, DomainConfiguration>();
+
+    private List<String> listenerNames;
+    private List<String> listenerPorts;
+
+    private DomainConfiguration(List<String> listenerNames, List<String> listenerPorts) {
+        this.listenerNames = Collections.unmodifiableList(listenerNames);
+        this.listenerPorts = Collections.unmodifiableList(listenerPorts);
+    }
+
+    /**
+     * Returns the model of the given domain configuration file, parsing it only if it has not
+     * been parsed before or if it has been modified since.
+     * 
+     * @param domainConfig
+     *            domain.xml file
+     * @return domain configuration
+     */
+    public static synchronized DomainConfiguration getInstance(File domainConfig) {
+        String key = domainConfig.getAbsolutePath() + "@" + domainConfig.lastModified();
+        DomainConfiguration model = cache.get(key);
+        if (model == null) {
+            model = parse(domainConfig);
+            cache.put(key, model);
+        }
+        return model;
+    }
+
+    private static DomainConfiguration parse(File domainConfig) {
+        List<String> names = new ArrayList<String>();
+        List<String> ports = new ArrayList<String>();
+        try {
+            InputStream is = new FileInputStream(domainConfig);
+            try {
+                XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+                String configName = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT
+                            && CONFIG.equals(reader.getLocalName())) {
+                        configName = reader.getAttributeValue(null, "name");
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT
+                            && CONFIG.equals(reader.getLocalName())) {
+                        configName = null;
+                    }
+                    else if (event == XMLStreamConstants.START_ELEMENT
+                            && "network-listener".equals(reader.getLocalName())
+                            && SERVER_CONFIG.equals(configName)) {
+                        names.add(reader.getAttributeValue(null, "name"));
+                        ports.add(reader.getAttributeValue(null, "port"));
+                    }
+                }
+                reader.close();
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch (IOException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+        catch (XMLStreamException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+        return new DomainConfiguration(names, ports);
+    }
+
+    /**
+     * @return names of the network listeners of the server configuration in document order
+     */
+    public List<String> getListenerNames() {
+        return listenerNames;
+    }
+
+    /**
+     * @return port of the first network listener of the server configuration, or the empty
+     *         string if there is none
+     */
+    public String getFirstPort() {
+        if (listenerPorts.isEmpty()) {
+            return "";
+        }
+        return listenerPorts.get(0);
+    }
+}
@@ -19,18 +19,12 @@ package com.googlecode.jeeunit.glassfish;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.net.BindException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.util.concurrent.Callable;
 
 import org.glassfish.embeddable.Deployer;
 import org.glassfish.embeddable.GlassFish;
@@ -39,9 +33,15 @@ import org.glassfish.embeddable.GlassFishProperties;
 import org.glassfish.embeddable.GlassFishRuntime;
 import org.glassfish.embeddable.archive.ScatteredArchive;
 import org.glassfish.embeddable.archive.ScatteredArchive.Type;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
+import com.googlecode.jeeunit.impl.BackgroundTask;
+import com.googlecode.jeeunit.impl.ClassFileChangeDetector;
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
+import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.PortAllocator;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TempSpace;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
@@ -54,6 +54,10 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
     
     private static EmbeddedGlassfishContainer instance;
 
+    /** Number of attempts to start the server with newly allocated ports. */
+    private static final int MAX_START_ATTEMPTS = 3;
+
+
     private GlassFish glassFish;
     private FileFilter classpathFilter;
     
@@ -64,10 +68,23 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
     
     private List<File> metadataFiles = new ArrayList<File>();
 
-    private File tmpBeansXml;
-
     private File tmpDir;
 
+    private ClassFileChangeDetector changeDetector;
+
+    private BackgroundTask<URI> warBuilder;
+
+    /** Metadata files seen by the background WAR builder. */
+    private List<File> warBuilderMetadata;
+
+    /** Classpath filter seen by the background WAR builder. */
+    private FileFilter warBuilderFilter;
+
+    /** HTTP port chosen on launch, or 0 to use the port from domain.xml. */
+    private int httpPort;
+
+    private DomainConfiguration domainConfiguration;
+
     /**
      * Default filter suppressing Glassfish and Eclipse components from the classpath when 
      * building the ad hoc WAR.
@@ -107,11 +124,10 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
         metadataFiles.add(new File(webInf, "web.xml"));
         File beansXml = new File(webInf, "beans.xml");
         if (!beansXml.exists()) {
+            createTempDir();
             beansXml = new File(tmpDir, "beans.xml");
             try {
-                createTempDir();
                 beansXml.createNewFile();
-                tmpBeansXml = beansXml;
             }
             catch (IOException exc) {
                 throw new RuntimeException("cannot create " + beansXml);
@@ -122,8 +138,7 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
 
     private void createTempDir()
     {
-        tmpDir = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
-        tmpDir.mkdir();
+        tmpDir = TempSpace.getInstance().createTempDir("glassfish");
     }
 
     public static synchronized EmbeddedGlassfishContainer getInstance() {
@@ -143,9 +158,8 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
                 catch (GlassFishException exc) {
                     exc.printStackTrace();
                 }                
-                if (tmpBeansXml != null) {
-                    tmpBeansXml.delete();
-                    tmpDir.delete();
+                if (tmpDir != null) {
+                    TempSpace.getInstance().release(tmpDir);
                 }
             }
         });
@@ -183,8 +197,9 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
      * Sets the configuration file for the embedded server.
      * @param configuration
      */
-    protected void setConfiguration(File configuration) {
+    protected synchronized void setConfiguration(File configuration) {
         this.configuration = configuration;
+        this.domainConfiguration = null;
     }
 
     public void setClasspathFilter(FileFilter classpathFilter) {
@@ -209,41 +224,151 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
             throw new IllegalArgumentException(domainConfig + " not found");
         }
 
-        GlassFishProperties gfProps = new GlassFishProperties();
-        if (domainConfig.exists()) {
-            gfProps.setConfigFileURI(domainConfig.toURI().toString());
-        }
+        boolean allocatePorts = new ConfigurationLoader().load().getHttpPort() == 0;
 
+        startWarBuilder();
+        long start = StartupProfiler.getInstance().start();
         try {
-            glassFish = GlassFishRuntime.bootstrap().newGlassFish(gfProps);
-            glassFish.start();
+            GlassFishRuntime runtime = GlassFishRuntime.bootstrap();
+            for (int attempt = 1;; attempt++) {
+                GlassFishProperties gfProps = new GlassFishProperties();
+                gfProps.setConfigFileURI(domainConfig.toURI().toString());
+                if (allocatePorts) {
+                    allocatePorts(gfProps, domainConfig);
+                }
+                glassFish = runtime.newGlassFish(gfProps);
+                try {
+                    glassFish.start();
+                    break;
+                }
+                catch (GlassFishException exc) {
+                    // another process may have bound one of our free ports in the meantime
+                    glassFish.dispose();
+                    glassFish = null;
+                    if (!allocatePorts || attempt == MAX_START_ATTEMPTS || !isBindFailure(exc)) {
+                        throw exc;
+                    }
+                }
+            }
+            StartupProfiler.getInstance().record("startServer", start);
         }
         catch (GlassFishException exc) {
             throw new RuntimeException(exc);
         }
     }
 
+    /**
+     * Builds the WAR on a background thread while the server is booting.
+     */
+    private void startWarBuilder() {
+        // the caller may add metadata or change the filter while the builder is running,
+        // joinWarBuilder() compares this snapshot with the current settings
+        final List<File> metadata = new ArrayList<File>(metadataFiles);
+        final FileFilter filter = classpathFilter;
+        warBuilderMetadata = metadata;
+        warBuilderFilter = filter;
+        warBuilder = new BackgroundTask<URI>("jeeunit-war-builder", new Callable<URI>() {
+
+            @Override
+            public URI call() throws IOException {
+                return buildWar(metadata, filter);
+            }
+        });
+    }
+
+    /**
+     * Returns the WAR built in the background, or builds the WAR now if there is no
+     * background build or if metadata or the classpath filter changed after the background
+     * build was started.
+     */
+    private URI joinWarBuilder() throws IOException {
+        if (warBuilder == null) {
+            return buildWar();
+        }
+        long start = StartupProfiler.getInstance().start();
+        URI warUri;
+        try {
+            warUri = warBuilder.get();
+            StartupProfiler.getInstance().record("awaitWar", start);
+        }
+        finally {
+            StartupProfiler.getInstance().recordDuration("overlapWar",
+                    warBuilder.getOverlapNanos());
+            warBuilder = null;
+        }
+        if (isWarBuilderStale()) {
+            return buildWar();
+        }
+        return warUri;
+    }
+
+    /**
+     * Checks if metadata files or the classpath filter were changed after the background WAR
+     * builder was started.
+     */
+    private boolean isWarBuilderStale() {
+        boolean stale = !warBuilderMetadata.equals(metadataFiles)
+                || warBuilderFilter != classpathFilter;
+        warBuilderMetadata = null;
+        warBuilderFilter = null;
+        return stale;
+    }
+
+    /**
+     * Builds the ad hoc WAR from the filtered classpath, or reuses a WAR from the
+     * {@link DeploymentCache} if the classpath and metadata have not changed.
+     */
     private URI buildWar() throws IOException {
-        String classpath = System.getProperty("java.class.path");       
-        ScatteredArchive sar= new ScatteredArchive("jeeunit-autodeploy", Type.WAR);        
+        return buildWar(new ArrayList<File>(metadataFiles), classpathFilter);
+    }
+
+    private URI buildWar(List<File> metadataFiles, FileFilter classpathFilter)
+            throws IOException {
+        long start = StartupProfiler.getInstance().start();
+        List<File> classpathFiles = getClasspathFiles(classpathFilter);
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(getClass().getName());
+        fingerprint.add(classpathFiles);
+        fingerprint.addMetadata(metadataFiles);
+        String key = fingerprint.getKey();
+
+        DeploymentCache cache = new DeploymentCache(new ConfigurationLoader().load());
+        File war = cache.get(key);
+        if (war == null) {
+            ScatteredArchive sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+            for (File file : classpathFiles) {
+                sar.addClassPath(file);
+            }
+            for (File metadata : metadataFiles) {
+                if (metadata.exists()) {
+                    sar.addMetadata(metadata);
+                }
+            }
+            war = cache.put(key, new File(sar.toURI()));
+        }
+        StartupProfiler.getInstance().record("buildWar", start);
+        return war.toURI();
+    }
+
+    private List<File> getClasspathFiles() {
+        return getClasspathFiles(classpathFilter);
+    }
+
+    private List<File> getClasspathFiles(FileFilter classpathFilter) {
+        List<File> classpathFiles = new ArrayList<File>();
+        String classpath = System.getProperty("java.class.path");
         String[] pathElems = classpath.split(File.pathSeparator);
 
         for (String pathElem : pathElems) {
             File file = new File(pathElem);
             if (file.exists() && classpathFilter.accept(file)) {
-                sar.addClassPath(file);
+                classpathFiles.add(file);
             }
         }
-        for (File metadata : metadataFiles) {
-            if (metadata.exists()) {
-                sar.addMetadata(metadata);
-            }
-        }
-        URI warUri = sar.toURI();
-        return warUri;
+        return classpathFiles;
     }
 
     private void deployWar(URI warUri) throws GlassFishException {
+        long start = StartupProfiler.getInstance().start();
         Deployer deployer = glassFish.getDeployer();
         String appName = deployer.deploy(warUri, 
                 "--name", getApplicationName(),
@@ -251,36 +376,49 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
         if (! getApplicationName().equals(appName)) {
             throw new RuntimeException("error deploying WAR");
         }
+        StartupProfiler.getInstance().record("deploy", start);
     }
 
     /**
-     * Reads the first port number from the domain.xml configuration.
-     * @param domainConfig
-     * @return
+     * Checks if the server failed to start since a port was already in use.
      */
-    private String getPortNumber(File domainConfig) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder;
-            builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(domainConfig);
-            XPathFactory xpf = XPathFactory.newInstance();
-            XPath xPath = xpf.newXPath();
-            String port = xPath.evaluate("/domain/configs/config/network-config/network-listeners/network-listener/@port", doc);
-            return port;
-        }
-        catch (ParserConfigurationException exc) {
-            throw new IllegalArgumentException(exc);
-        }
-        catch (SAXException exc) {
-            throw new IllegalArgumentException(exc);
+    private static boolean isBindFailure(Throwable exc) {
+        for (Throwable cause = exc; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BindException) {
+                return true;
+            }
         }
-        catch (IOException exc) {
-            throw new IllegalArgumentException(exc);
+        return false;
+    }
+
+    /**
+     * Assigns a free port to each network listener from the domain.xml configuration. The
+     * port of the first listener is used for the context root URI. The ports are only probed,
+     * so the server may still fail to bind them, in which case it is started again with new
+     * ports.
+     * 
+     * @param gfProps
+     * @param domainConfig
+     */
+    private void allocatePorts(GlassFishProperties gfProps, File domainConfig) {
+        List<String> names = DomainConfiguration.getInstance(domainConfig).getListenerNames();
+        for (int i = 0; i < names.size(); i++) {
+            int port = PortAllocator.findFreePort();
+            gfProps.setPort(names.get(i), port);
+            if (i == 0) {
+                httpPort = port;
+            }
         }
-        catch (XPathExpressionException exc) {
-            throw new IllegalArgumentException(exc);
+    }
+
+    /**
+     * Returns the model of the domain.xml configuration, which is parsed on first access.
+     */
+    private synchronized DomainConfiguration getDomainConfiguration() {
+        if (domainConfiguration == null) {
+            domainConfiguration = DomainConfiguration.getInstance(configuration);
         }
+        return domainConfiguration;
     }
 
     public void shutdown() {
@@ -303,9 +441,10 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
     public URI autodeploy() {
         try {
             if (!isDeployed) {
-                URI warUri = buildWar();
+                URI warUri = joinWarBuilder();
                 deployWar(warUri);
                 isDeployed = true;
+                changeDetector = new ClassFileChangeDetector(getClasspathFiles());
             }
             return getContextRootUri();
         }
@@ -314,8 +453,28 @@ public class EmbeddedGlassfishContainer implements ContainerLauncher {
         }
     }
     
+    /**
+     * Redeploys the application if classes or resources have changed.
+     */
+    public synchronized URI update() {
+        if (!isDeployed) {
+            return autodeploy();
+        }
+        if (changeDetector.hasChanged()) {
+            try {
+                glassFish.getDeployer().undeploy(getApplicationName());
+                deployWar(buildWar());
+            }
+            catch (Exception exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+        return getContextRootUri();
+    }
+
     public URI getContextRootUri() {
-        String port = getPortNumber(configuration);
+        String port = (httpPort == 0) ? getDomainConfiguration().getFirstPort() : Integer
+            .toString(httpPort);
         try {
             return new URI(String.format("http://localhost:%s/%s/", port, getContextRoot()));
         }
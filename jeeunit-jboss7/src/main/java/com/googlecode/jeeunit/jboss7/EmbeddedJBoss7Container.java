@@ -24,9 +24,11 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.io.FileUtils;
@@ -36,9 +38,17 @@ import org.jboss.as.embedded.EmbeddedServerFactory;
 import org.jboss.as.embedded.ServerStartException;
 import org.jboss.as.embedded.StandaloneServer;
 
+import com.googlecode.jeeunit.impl.BackgroundTask;
+import com.googlecode.jeeunit.impl.ClassFileChangeDetector;
 import com.googlecode.jeeunit.impl.ClasspathFilter;
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
 import com.googlecode.jeeunit.impl.Configuration;
 import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.PortAllocator;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TempSpace;
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
 import com.googlecode.jeeunit.impl.ZipExploder;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
@@ -64,7 +74,12 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
 
     
     private static EmbeddedJBoss7Container instance;
-    
+
+    private static final String PORT_OFFSET = "jboss.socket.binding.port-offset";
+
+    /** Socket binding of the HTTP connector in the standalone configuration. */
+    private static final String HTTP_SOCKET_BINDING = "http";
+
     private FileFilter classpathFilter;
 
     private String applicationName;
@@ -75,8 +90,19 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
     private List<File> metadataFiles = new ArrayList<File>();
 
     private File tempDir;
+    private FileChannel webResourceLease;
 
     private File webappsDir;
+
+    private ClassFileChangeDetector changeDetector;
+
+    private BackgroundTask<URI> warBuilder;
+
+    /** Metadata files seen by the background WAR builder. */
+    private List<File> warBuilderMetadata;
+
+    /** Classpath filter seen by the background WAR builder. */
+    private FileFilter warBuilderFilter;
     
     private File jeeunitWar;
 
@@ -139,6 +165,7 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
             @Override
             public void run() {
                 shutdown();
+                TempSpace.getInstance().release(tempDir);
             }
         });
     }
@@ -191,17 +218,27 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
             return;
         }
 
-        config = new ConfigurationLoader().load();
-        prepareDirectories();
-
+        /*
+         * The JBoss log manager must be installed before anything touches the JDK
+         * LogManager, including the WAR builder thread.
+         */
         System.setProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager");
+
+        config = new ConfigurationLoader().load();
         String jbossHome = config.getServerHome();
         if (jbossHome == null)
             throw new IllegalStateException("Cannot find configuration property " + KEY_SERVER_HOME);
 
         File jbossHomeDir = new File(jbossHome);
 
-        server = EmbeddedServerFactory.create(jbossHomeDir, System.getProperties(), System.getenv());
+        // bootstrap properties of the server, leaving the system properties unchanged
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        allocatePorts(jbossHomeDir, props);
+        prepareDirectories();
+        startWarBuilder();
+
+        server = EmbeddedServerFactory.create(jbossHomeDir, props, System.getenv());
         
         /*
          * Running under "Run as JUnit test" from Eclipse in a separate process, we do not get
@@ -210,8 +247,10 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
          */
         addShutdownHook();
         
+        long start = StartupProfiler.getInstance().start();
         try {
             server.start();
+            StartupProfiler.getInstance().record("startServer", start);
         }
         catch (ServerStartException exc) {
             throw new RuntimeException(exc);
@@ -219,41 +258,192 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
 
     }
 
+    /**
+     * For HTTP port 0, shifts all ports of the standalone server by a port offset for which all
+     * ports of the socket bindings in the standalone configuration are free. The offset is
+     * passed to the server as a bootstrap property.
+     * 
+     * @param jbossHomeDir
+     *            JBoss home directory
+     * @param props
+     *            bootstrap properties
+     */
+    private void allocatePorts(File jbossHomeDir, Properties props) {
+        if (config.getHttpPort() == 0) {
+            StandaloneConfiguration standalone = StandaloneConfiguration
+                    .getInstance(getStandaloneConfiguration(jbossHomeDir, props));
+            int offset = PortAllocator.findFreeOffset(standalone.getPorts(props), 100, 20000);
+            props.setProperty(PORT_OFFSET, Integer.toString(offset));
+            config.setHttpPort(standalone.getPort(HTTP_SOCKET_BINDING, props) + offset);
+        }
+    }
+
+    /**
+     * Returns the standalone configuration file used by the server, following the directory
+     * layout and the system properties of JBoss AS 7.
+     */
+    private File getStandaloneConfiguration(File jbossHomeDir, Properties props) {
+        String configDir = props.getProperty("jboss.server.config.dir");
+        if (configDir == null) {
+            String baseDir = props.getProperty("jboss.server.base.dir",
+                    new File(jbossHomeDir, "standalone").getPath());
+            configDir = new File(baseDir, "configuration").getPath();
+        }
+        return new File(configDir, props.getProperty("jboss.server.default.config",
+                "standalone.xml"));
+    }
+
     private void prepareDirectories() {
+        long start = StartupProfiler.getInstance().start();
         webappsDir = new File(tempDir, "webapps");
         webappsDir.mkdirs();
+        StartupProfiler.getInstance().record("prepareDirectories", start);
     }
 
-    private URI buildWar() throws IOException {
-        ScatteredArchive sar;        
-        File webResourceDir = getWebResourceDir();
-        if (webResourceDir.exists() && webResourceDir.isDirectory()) {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
+    /**
+     * Builds the WAR on a background thread while the server is booting.
+     */
+    private void startWarBuilder() {
+        // the caller may add metadata or change the filter while the builder is running,
+        // joinWarBuilder() compares this snapshot with the current settings
+        final List<File> metadata = new ArrayList<File>(metadataFiles);
+        final FileFilter filter = classpathFilter;
+        warBuilderMetadata = metadata;
+        warBuilderFilter = filter;
+        warBuilder = new BackgroundTask<URI>("jeeunit-war-builder", new Callable<URI>() {
+
+            @Override
+            public URI call() throws IOException {
+                return buildWar(metadata, filter);
+            }
+        });
+    }
+
+    /**
+     * Waits for the WAR built in the background, or builds the WAR now if there is no
+     * background build or if metadata or the classpath filter changed after the background
+     * build was started.
+     */
+    private void joinWarBuilder() throws IOException {
+        if (warBuilder == null) {
+            buildWar();
+            return;
         }
-        else {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);            
+        long start = StartupProfiler.getInstance().start();
+        try {
+            warBuilder.get();
+            StartupProfiler.getInstance().record("awaitWar", start);
+        }
+        finally {
+            StartupProfiler.getInstance().recordDuration("overlapWar",
+                    warBuilder.getOverlapNanos());
+            warBuilder = null;
         }
+        if (isWarBuilderStale()) {
+            buildWar();
+        }
+    }
+
+    /**
+     * Checks if metadata files or the classpath filter were changed after the background WAR
+     * builder was started.
+     */
+    private boolean isWarBuilderStale() {
+        boolean stale = !warBuilderMetadata.equals(metadataFiles)
+                || warBuilderFilter != classpathFilter;
+        warBuilderMetadata = null;
+        warBuilderFilter = null;
+        return stale;
+    }
+
+    /**
+     * Builds the ad hoc WAR from the filtered classpath, or reuses a WAR from the
+     * {@link DeploymentCache} if the classpath and metadata have not changed.
+     */
+    private URI buildWar() throws IOException {
+        return buildWar(new ArrayList<File>(metadataFiles), classpathFilter);
+    }
+
+    private URI buildWar(List<File> metadataFiles, FileFilter classpathFilter)
+            throws IOException {
+        long start = StartupProfiler.getInstance().start();
+        List<File> classpathFiles = getClasspathFiles(classpathFilter);
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(getClass().getName() + ":"
+                + getWarBaseFilter());
+        fingerprint.add(classpathFiles);
+        fingerprint.addMetadata(metadataFiles);
+        fingerprint.add(getWebResourceSource());
+        String key = fingerprint.getKey();
+
+        DeploymentCache cache = new DeploymentCache(config);
+        File war = cache.get(key);
+        if (war == null) {
+            ScatteredArchive sar;
+            File webResourceDir = getWebResourceDir();
+            try {
+                if (webResourceDir.exists() && webResourceDir.isDirectory()) {
+                    sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
+                }
+                else {
+                    sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+                }
+                for (File file : classpathFiles) {
+                    sar.addClassPath(file);
+                }
+                for (File metadata : metadataFiles) {
+                    if (metadata.exists()) {
+                        sar.addMetadata(metadata);
+                    }
+                }
+                war = cache.put(key, new File(sar.toURI()));
+            }
+            finally {
+                // the exploded base WAR is only read while building the WAR
+                releaseWebResourceDir();
+            }
+        }
+        jeeunitWar = new File(webappsDir, "jeeunit.war");
+        FileUtils.copyFile(war, jeeunitWar);
+        StartupProfiler.getInstance().record("buildWar", start);
+        return war.toURI();
+    }
+
+    private List<File> getClasspathFiles() {
+        return getClasspathFiles(classpathFilter);
+    }
+
+    private List<File> getClasspathFiles(FileFilter classpathFilter) {
+        List<File> classpathFiles = new ArrayList<File>();
         String classpath = System.getProperty("java.class.path");
         String[] pathElems = classpath.split(File.pathSeparator);
 
         for (String pathElem : pathElems) {
             File file = new File(pathElem);
             if (file.exists() && classpathFilter.accept(file)) {
-                sar.addClassPath(file);
+                classpathFiles.add(file);
             }
         }
-        for (File metadata : metadataFiles) {
-            if (metadata.exists()) {
-                sar.addMetadata(metadata);
-            }
+        return classpathFiles;
+    }
+
+    /**
+     * Returns the filter for entries of the base WAR.
+     */
+    private ZipEntryFilter getWarBaseFilter() {
+        return new ZipEntryFilter(config.getWarBaseIncludes(), config.getWarBaseExcludes());
+    }
+
+    /**
+     * Returns the base WAR, if configured, or the web resource directory.
+     */
+    private File getWebResourceSource() {
+        String warBase = config.getWarBase();
+        if (warBase == null) {
+            return new File("src/main/webapp");
         }
-        URI warUri = sar.toURI();
-        File war = new File(warUri);
-        jeeunitWar = new File(webappsDir, "jeeunit.war");
-        FileUtils.copyFile(war, jeeunitWar);
-        return warUri;        
+        return new File(warBase);
     }
-    
+
     private File getWebResourceDir() throws IOException {
         File webResourceDir;
         String warBase = config.getWarBase();
@@ -262,24 +452,82 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
         }
         else {
             ZipExploder exploder = new ZipExploder();
-            webResourceDir = new File(tempDir, "exploded");
-            webResourceDir.mkdir();
-            exploder.processFile(new File(warBase).getAbsolutePath(), webResourceDir.getAbsolutePath());            
+            exploder.setThreads(config.getWarExplodeThreads());
+            exploder.setFilter(getWarBaseFilter());
+            File userWar = new File(warBase);
+            DeploymentCache cache = new DeploymentCache(config);
+            releaseWebResourceDir();
+            DeploymentCache.ExplodedDir exploded = cache.explode(userWar, exploder);
+            if (exploded == null) {
+                webResourceDir = new File(tempDir, "exploded");
+                exploder.setIncremental(false);
+                webResourceDir.mkdirs();
+                exploder.processFile(userWar.getAbsolutePath(),
+                        webResourceDir.getAbsolutePath());
+            }
+            else {
+                webResourceDir = exploded.getDir();
+                webResourceLease = exploded.getLease();
+            }
         }
         return webResourceDir;
     }
+
+    /**
+     * Releases the lease on the exploded base WAR, if any.
+     */
+    private void releaseWebResourceDir() {
+        if (webResourceLease != null) {
+            try {
+                webResourceLease.close();
+            }
+            catch (IOException exc) {
+                // lease is released anyway
+            }
+            webResourceLease = null;
+        }
+    }
     
     public void shutdown() {
         server.stop();
     }
 
-    public URI autodeploy() {
+    /**
+     * Undeploys the WAR and deploys a rebuilt WAR if classes or resources have changed.
+     */
+    public synchronized URI update() {
         if (!isDeployed) {
+            return autodeploy();
+        }
+        if (changeDetector.hasChanged()) {
             try {
+                server.undeploy(jeeunitWar);
                 buildWar();
+                server.deploy(jeeunitWar);
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+            catch (ExecutionException exc) {
+                throw new RuntimeException(exc);
+            }
+            catch (InterruptedException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+        return getContextRootUri();
+    }
+
+    public URI autodeploy() {
+        if (!isDeployed) {
+            try {
+                joinWarBuilder();
+                long start = StartupProfiler.getInstance().start();
                 // TODO This method is deprecated, but what's the alternative?
                 server.deploy(jeeunitWar);
+                StartupProfiler.getInstance().record("deploy", start);
                 isDeployed = true;
+                changeDetector = new ClassFileChangeDetector(getClasspathFiles());
             }
             catch (IOException exc) {
                 throw new RuntimeException(exc);
@@ -308,10 +556,7 @@ public class EmbeddedJBoss7Container implements ContainerLauncher {
     }
 
     private File createTempDir() {
-        File tmpRoot = FileUtils.getTempDirectory();
-        File tmpDir = new File(tmpRoot, UUID.randomUUID().toString());
-        tmpDir.mkdir();
-        return tmpDir;
+        return TempSpace.getInstance().createTempDir("jboss7");
     }
 
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.jboss7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Immutable model of the socket bindings of a JBoss AS 7 {@code standalone.xml}, read with a
+ * streaming parser. Parsed models are cached by file, path and modification time.
+ * <p>
+ * Only socket bindings shifted by the port offset are included, so bindings with a fixed port
+ * and outbound socket bindings are ignored. Ports may be given as expressions
+ * {@code ${property:default}}, which are resolved against the bootstrap properties of the
+ * server.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class StandaloneConfiguration {
+
+    private static final String SOCKET_BINDING = "socket-binding";
+
+    private static Map<String, StandaloneConfiguration> cache = new HashMap<String, StandaloneConfiguration>();
+
+    private Map<String, String> ports;
+
+    private StandaloneConfiguration(Map<String, String> ports) {
+        this.ports = Collections.unmodifiableMap(ports);
+    }
+
+    /**
+     * Returns the model of the given standalone configuration file, parsing it only if it has
+     * not been parsed before or if it has been modified since.
+     * 
+     * @param standaloneConfig
+     *            standalone.xml file
+     * @return standalone configuration
+     */
+    public static synchronized StandaloneConfiguration getInstance(File standaloneConfig) {
+        String key = standaloneConfig.getAbsolutePath() + "@" + standaloneConfig.lastModified();
+        StandaloneConfiguration model = cache.get(key);
+        if (model == null) {
+            model = parse(standaloneConfig);
+            cache.put(key, model);
+        }
+        return model;
+    }
+
+    private static StandaloneConfiguration parse(File standaloneConfig) {
+        Map<String, String> ports = new LinkedHashMap<String, String>();
+        try {
+            InputStream is = new FileInputStream(standaloneConfig);
+            try {
+                XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT
+                            && SOCKET_BINDING.equals(reader.getLocalName())
+                            && !"true".equals(reader.getAttributeValue(null, "fixed-port"))) {
+                        String port = reader.getAttributeValue(null, "port");
+                        if (port != null) {
+                            ports.put(reader.getAttributeValue(null, "name"), port);
+                        }
+                    }
+                }
+                reader.close();
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch (IOException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+        catch (XMLStreamException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+        return new StandaloneConfiguration(ports);
+    }
+
+    /**
+     * Returns the ports of all socket bindings without port offset. Bindings with port 0 are
+     * omitted.
+     * 
+     * @param props
+     *            bootstrap properties for resolving expressions
+     * @return ports in document order
+     */
+    public int[] getPorts(Properties props) {
+        List<Integer> resolved = new ArrayList<Integer>();
+        for (String port : ports.values()) {
+            int value = resolve(port, props);
+            if (value > 0) {
+                resolved.add(value);
+            }
+        }
+        int[] result = new int[resolved.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = resolved.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the port of the given socket binding without port offset.
+     * 
+     * @param name
+     *            socket binding name
+     * @param props
+     *            bootstrap properties for resolving expressions
+     * @return port
+     * @throws IllegalArgumentException
+     *             if there is no such socket binding
+     */
+    public int getPort(String name, Properties props) {
+        String port = ports.get(name);
+        if (port == null) {
+            throw new IllegalArgumentException("no socket binding " + name);
+        }
+        return resolve(port, props);
+    }
+
+    /**
+     * Resolves a port given as number or as expression {@code ${name:default}}. The expression
+     * may contain alternative property names separated by commas.
+     */
+    private static int resolve(String port, Properties props) {
+        String value = port.trim();
+        if (value.startsWith("${") && value.endsWith("}")) {
+            String expression = value.substring(2, value.length() - 1);
+            String defaultValue = null;
+            int colon = expression.indexOf(':');
+            if (colon >= 0) {
+                defaultValue = expression.substring(colon + 1);
+                expression = expression.substring(0, colon);
+            }
+            value = defaultValue;
+            for (String name : expression.split(",")) {
+                String property = props.getProperty(name.trim());
+                if (property != null) {
+                    value = property;
+                    break;
+                }
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("cannot resolve port " + port);
+            }
+        }
+        return Integer.parseInt(value.trim());
+    }
+}
@@ -25,6 +25,8 @@ import javax.enterprise.inject.spi.BeanManager;
 import org.apache.webbeans.cditest.CdiTestContainer;
 import org.apache.webbeans.cditest.CdiTestContainerLoader;
 
+import com.googlecode.jeeunit.cdi.BeanManagerLookup;
+import com.googlecode.jeeunit.impl.StartupProfiler;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
@@ -56,9 +58,11 @@ public class OpenWebBeansContainer implements ContainerLauncher {
     @Override
     public void launch() {
         addShutdownHook();
+        long start = StartupProfiler.getInstance().start();
         container = CdiTestContainerLoader.getCdiContainer();
         try {
             container.bootContainer();
+            StartupProfiler.getInstance().record("startServer", start);
         }
         catch (Exception exc) {
             throw new RuntimeException(exc);
@@ -73,6 +77,9 @@ public class OpenWebBeansContainer implements ContainerLauncher {
         catch (Exception exc) {
             throw new RuntimeException(exc);
         }
+        finally {
+            BeanManagerLookup.invalidate();
+        }
     }
 
     @Override
@@ -80,6 +87,14 @@ public class OpenWebBeansContainer implements ContainerLauncher {
         return null;
     }
 
+    /**
+     * There is no application to redeploy.
+     */
+    @Override
+    public URI update() {
+        return autodeploy();
+    }
+
     @Override
     public void setClasspathFilter(FileFilter filter) {
         throw new UnsupportedOperationException();
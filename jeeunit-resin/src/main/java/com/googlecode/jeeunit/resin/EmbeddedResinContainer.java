@@ -25,7 +25,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -35,9 +34,15 @@ import org.glassfish.embeddable.archive.ScatteredArchive.Type;
 import com.caucho.resin.HttpEmbed;
 import com.caucho.resin.ResinEmbed;
 import com.caucho.resin.WebAppEmbed;
+import com.googlecode.jeeunit.impl.ClassFileChangeDetector;
 import com.googlecode.jeeunit.impl.ClasspathFilter;
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
 import com.googlecode.jeeunit.impl.Configuration;
 import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.PortAllocator;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TempSpace;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
@@ -76,6 +81,8 @@ public class EmbeddedResinContainer implements ContainerLauncher {
 
     private File tempDir;
 
+    private ClassFileChangeDetector changeDetector;
+
     private static String[] excludes = { "shrinkwrap-", "resin-", "javaee-", "jsr250-",
     "org.eclipse.osgi" };
 
@@ -121,13 +128,8 @@ public class EmbeddedResinContainer implements ContainerLauncher {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                try {
-                    FileUtils.deleteDirectory(tempDir);
-                }
-                catch (IOException exc) {
-                    // ignore
-                }
                 shutdown();
+                TempSpace.getInstance().release(tempDir);
             }
         });
     }
@@ -182,7 +184,7 @@ public class EmbeddedResinContainer implements ContainerLauncher {
 
         resin = new ResinEmbed();
         config = new ConfigurationLoader().load();
-        HttpEmbed httpPortDef = new HttpEmbed(config.getHttpPort());
+        HttpEmbed httpPortDef = new HttpEmbed(PortAllocator.resolveHttpPort(config));
         resin.addPort(httpPortDef);
         resin.setRootDirectory(new File(tempDir, "serverroot").getAbsolutePath());
 
@@ -195,36 +197,60 @@ public class EmbeddedResinContainer implements ContainerLauncher {
 
     }
 
+    /**
+     * Builds the ad hoc WAR from the filtered classpath, or reuses a WAR from the
+     * {@link DeploymentCache} if the classpath and metadata have not changed.
+     */
     private File buildWar() throws IOException {
-        ScatteredArchive sar;        
+        long start = StartupProfiler.getInstance().start();
+        List<File> classpathFiles = getClasspathFiles();
         File webResourceDir = new File("src/main/webapp");
-        if (webResourceDir.exists() && webResourceDir.isDirectory()) {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
-        }
-        else {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);            
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(getClass().getName());
+        fingerprint.add(classpathFiles);
+        fingerprint.addMetadata(metadataFiles);
+        fingerprint.add(webResourceDir);
+        String key = fingerprint.getKey();
+
+        DeploymentCache cache = new DeploymentCache(config);
+        File war = cache.get(key);
+        if (war == null) {
+            ScatteredArchive sar;
+            if (webResourceDir.exists() && webResourceDir.isDirectory()) {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
+            }
+            else {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+            }
+            for (File file : classpathFiles) {
+                sar.addClassPath(file);
+            }
+            for (File metadata : metadataFiles) {
+                if (metadata.exists()) {
+                    sar.addMetadata(metadata);
+                }
+            }
+            war = cache.put(key, new File(sar.toURI()));
         }
+        File warFile = new File(tempDir, "jeeunit.war");
+        copyFile(war, warFile);
+        StartupProfiler.getInstance().record("buildWar", start);
+        return warFile;
+    }
+
+    private List<File> getClasspathFiles() {
+        List<File> classpathFiles = new ArrayList<File>();
         String classpath = System.getProperty("java.class.path");
         String[] pathElems = classpath.split(File.pathSeparator);
 
         for (String pathElem : pathElems) {
             File file = new File(pathElem);
             if (file.exists() && classpathFilter.accept(file)) {
-                sar.addClassPath(file);
-            }
-        }
-        for (File metadata : metadataFiles) {
-            if (metadata.exists()) {
-                sar.addMetadata(metadata);
+                classpathFiles.add(file);
             }
         }
-        URI warUri = sar.toURI();
-        File war = new File(warUri);
-        File warFile = new File(tempDir, "jeeunit.war");
-        copyFile(war, warFile);
-        return war;        
+        return classpathFiles;
     }
-    
+
     private void copyFile(File source, File target) throws IOException {
         FileInputStream is = new FileInputStream(source);
         FileOutputStream os = new FileOutputStream(target);
@@ -238,6 +264,27 @@ public class EmbeddedResinContainer implements ContainerLauncher {
         resin.destroy();
     }
 
+    /**
+     * Rebuilds the WAR and restarts the web application if classes or resources have changed.
+     */
+    public synchronized URI update() {
+        if (!isDeployed) {
+            return autodeploy();
+        }
+        if (changeDetector.hasChanged()) {
+            resin.stop();
+            try {
+                buildWar();
+                FileUtils.deleteDirectory(new File(tempDir, "jeeunit-root"));
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+            resin.start();
+        }
+        return getContextRootUri();
+    }
+
     public URI autodeploy() {
         if (!isDeployed) {
             File war;
@@ -247,12 +294,16 @@ public class EmbeddedResinContainer implements ContainerLauncher {
             catch (IOException exc) {
                 throw new RuntimeException(exc);
             }
+            // Resin deploys the web app while starting the server
+            long start = StartupProfiler.getInstance().start();
             WebAppEmbed webApp = new WebAppEmbed("/" + getContextRoot(),
                     new File(tempDir, "jeeunit-root").getAbsolutePath());
             webApp.setArchivePath(war.getAbsolutePath());
             resin.addWebApp(webApp);
             resin.start();
+            StartupProfiler.getInstance().record("startServer", start);
             isDeployed = true;
+            changeDetector = new ClassFileChangeDetector(getClasspathFiles());
         }
         return getContextRootUri();
     }
@@ -271,9 +322,6 @@ public class EmbeddedResinContainer implements ContainerLauncher {
     }
 
     private File createTempDir() {
-        File tmpRoot = FileUtils.getTempDirectory();
-        File tmpDir = new File(tmpRoot, UUID.randomUUID().toString());
-        tmpDir.mkdir();
-        return tmpDir;
+        return TempSpace.getInstance().createTempDir("resin");
     }
 }
@@ -37,9 +37,9 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import org.apache.catalina.Engine;
 import org.apache.catalina.Host;
@@ -47,19 +47,26 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Connector;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.deploy.ContextResource;
 import org.apache.catalina.deploy.ContextResourceEnvRef;
 import org.apache.catalina.loader.WebappLoader;
 import org.apache.catalina.startup.Embedded;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.glassfish.embeddable.archive.ScatteredArchive;
 import org.glassfish.embeddable.archive.ScatteredArchive.Type;
 
+import com.googlecode.jeeunit.impl.ClassFileChangeDetector;
 import com.googlecode.jeeunit.impl.ClasspathFilter;
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
 import com.googlecode.jeeunit.impl.Configuration;
 import com.googlecode.jeeunit.impl.ConfigurationLoader;
-import com.googlecode.jeeunit.impl.ZipExploder;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.PortAllocator;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TempSpace;
+import com.googlecode.jeeunit.impl.WarOverlay;
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
@@ -113,10 +120,17 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
 
     private File catalinaHome;
 
-    private File webappDir;
+    private File jeeunitWar;
+
+    /** Lease on the cached WAR used as document base. */
+    private FileChannel warLease;
 
     private File webappsDir;
 
+    private StandardContext appContext;
+
+    private ClassFileChangeDetector changeDetector;
+
     private File tmpDefaultWebXml;
 
     /**
@@ -180,13 +194,9 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                try {
-                    FileUtils.deleteDirectory(tempDir);
-                }
-                catch (IOException exc) {
-                    // ignore
-                }
                 shutdown();
+                releaseWar();
+                TempSpace.getInstance().release(tempDir);
             }
         });
     }
@@ -242,6 +252,7 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
         }
 
         config = new ConfigurationLoader().load();
+        PortAllocator.resolveHttpPort(config);
         prepareDirectories();
 
         tomcat = new Embedded();
@@ -257,57 +268,111 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
     }
 
     private void prepareDirectories() {
+        long start = StartupProfiler.getInstance().start();
         webappsDir = new File(tempDir, "webapps");
         webappsDir.mkdirs();
-        webappDir = new File(webappsDir, contextRoot);
         catalinaHome = new File(tempDir, "catalina");
-
+        StartupProfiler.getInstance().record("prepareDirectories", start);
     }
 
+    /**
+     * Builds the ad hoc WAR from the filtered classpath, or reuses a WAR from the
+     * {@link DeploymentCache} if the classpath and metadata have not changed. A base WAR is
+     * merged by a {@link WarOverlay}, without exploding it. The cached WAR is the document
+     * base of the web application, so it is leased until the server is stopped or the WAR is
+     * replaced.
+     */
     private URI buildWar() throws IOException {
-        ScatteredArchive sar;
-        File webResourceDir = getWebResourceDir();
-        if (webResourceDir.exists() && webResourceDir.isDirectory()) {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR,
-                    webResourceDir);
+        long start = StartupProfiler.getInstance().start();
+        List<File> classpathFiles = getClasspathFiles();
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(getClass().getName() + ":"
+                + getWarBaseFilter());
+        fingerprint.add(classpathFiles);
+        fingerprint.addMetadata(metadataFiles);
+        fingerprint.add(getWebResourceSource());
+        String key = fingerprint.getKey();
+
+        DeploymentCache cache = new DeploymentCache(config);
+        File war = cache.get(key);
+        if (war == null) {
+            ScatteredArchive sar;
+            File webResourceDir = new File("src/main/webapp");
+            String warBase = config.getWarBase();
+            if (warBase == null && webResourceDir.isDirectory()) {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
+            }
+            else {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+            }
+            for (File file : classpathFiles) {
+                sar.addClassPath(file);
+            }
+            for (File metadata : metadataFiles) {
+                if (metadata.exists()) {
+                    sar.addMetadata(metadata);
+                }
+            }
+            war = new File(sar.toURI());
+            if (warBase != null) {
+                WarOverlay overlay = new WarOverlay(new File(warBase));
+                overlay.setFilter(getWarBaseFilter());
+                war = overlay.merge(war);
+            }
+            war = cache.put(key, war);
         }
-        else {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+        FileChannel lease = cache.leaseWar(war);
+        releaseWar();
+        warLease = lease;
+        jeeunitWar = war;
+        StartupProfiler.getInstance().record("buildWar", start);
+        return war.toURI();
+    }
+
+    /**
+     * Releases the lease on the cached WAR, if any.
+     */
+    private void releaseWar() {
+        if (warLease != null) {
+            try {
+                warLease.close();
+            }
+            catch (IOException exc) {
+                // lease is released anyway
+            }
+            warLease = null;
         }
+    }
+
+    private List<File> getClasspathFiles() {
+        List<File> classpathFiles = new ArrayList<File>();
         String classpath = System.getProperty("java.class.path");
         String[] pathElems = classpath.split(File.pathSeparator);
 
         for (String pathElem : pathElems) {
             File file = new File(pathElem);
             if (file.exists() && classpathFilter.accept(file)) {
-                sar.addClassPath(file);
-            }
-        }
-        for (File metadata : metadataFiles) {
-            if (metadata.exists()) {
-                sar.addMetadata(metadata);
+                classpathFiles.add(file);
             }
         }
-        URI warUri = sar.toURI();
-        File war = new File(warUri);
-        FileUtils.copyFile(war, new File(webappsDir, "jeeunit.war"));
-        return warUri;
+        return classpathFiles;
     }
 
-    private File getWebResourceDir() throws IOException {
-        File webResourceDir;
-        if (config.getWarBase() == null) {
-            webResourceDir = new File("src/main/webapp");
-        }
-        else {
-            ZipExploder exploder = new ZipExploder();
-            webResourceDir = new File(tempDir, "exploded");
-            webResourceDir.mkdir();
-            File userWar = new File(config.getWarBase());
-            exploder.processFile(userWar.getAbsolutePath(),
-                    webResourceDir.getAbsolutePath());
+    /**
+     * Returns the filter for entries of the base WAR.
+     */
+    private ZipEntryFilter getWarBaseFilter() {
+        return new ZipEntryFilter(config.getWarBaseIncludes(), config.getWarBaseExcludes());
+    }
+
+    /**
+     * Returns the base WAR, if configured, or the web resource directory.
+     */
+    private File getWebResourceSource() {
+        String warBase = config.getWarBase();
+        if (warBase == null) {
+            return new File("src/main/webapp");
         }
-        return webResourceDir;
+        return new File(warBase);
     }
 
     @Override
@@ -330,10 +395,13 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
                 throw new RuntimeException(exc);
             }
 
+            long start = StartupProfiler.getInstance().start();
             createDefaultWebXml();
 
-            StandardContext appContext = (StandardContext) tomcat
-                    .createContext(contextRoot, webappDir.getAbsolutePath());
+            // serve the WAR from the archive, without expanding it
+            appContext = (StandardContext) tomcat.createContext(contextRoot,
+                    jeeunitWar.getAbsolutePath());
+            appContext.setUnpackWAR(false);
             appContext.setDefaultWebXml(tmpDefaultWebXml.getAbsolutePath());
             WebappLoader loader = new WebappLoader();
             loader.setLoaderClass(EmbeddedWebappClassLoader.class.getName());
@@ -362,15 +430,41 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
                 addWeldBeanManager(appContext);
             }
 
+            StartupProfiler.getInstance().record("deploy", start);
             startServer(appContext);
+            changeDetector = new ClassFileChangeDetector(getClasspathFiles());
 
         }
         return getContextRootUri();
     }
 
+    /**
+     * Rebuilds the WAR and reloads the web application context if classes or resources have
+     * changed.
+     */
+    @Override
+    public synchronized URI update() {
+        if (!isDeployed) {
+            return autodeploy();
+        }
+        if (changeDetector.hasChanged()) {
+            try {
+                buildWar();
+                appContext.setDocBase(jeeunitWar.getAbsolutePath());
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+            appContext.reload();
+        }
+        return getContextRootUri();
+    }
+
     private void startServer(StandardContext appContext) {
+        long start = StartupProfiler.getInstance().start();
         Host localHost = tomcat.createHost("localhost",
                 webappsDir.getAbsolutePath());
+        ((StandardHost) localHost).setUnpackWARs(false);
 
         localHost.addChild(appContext);
 
@@ -393,6 +487,7 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
         try {
             tomcat.start();
             isDeployed = true;
+            StartupProfiler.getInstance().record("startServer", start);
         }
         catch (LifecycleException exc) {
             throw new RuntimeException(exc);
@@ -449,9 +544,6 @@ public class EmbeddedTomcat6Container implements ContainerLauncher {
     }
 
     private File createTempDir() {
-        File tmpRoot = FileUtils.getTempDirectory();
-        File tmpDir = new File(tmpRoot, UUID.randomUUID().toString());
-        tmpDir.mkdir();
-        return tmpDir;
+        return TempSpace.getInstance().createTempDir("tomcat6");
     }
 }
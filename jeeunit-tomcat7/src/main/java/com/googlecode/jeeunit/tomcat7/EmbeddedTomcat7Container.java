@@ -35,9 +35,9 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import javax.servlet.ServletException;
 
@@ -49,15 +49,24 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.deploy.ContextResource;
 import org.apache.catalina.deploy.ContextResourceEnvRef;
+import org.apache.catalina.loader.VirtualWebappLoader;
 import org.apache.catalina.loader.WebappLoader;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.commons.io.FileUtils;
+import org.apache.naming.resources.VirtualDirContext;
 import org.glassfish.embeddable.archive.ScatteredArchive;
 import org.glassfish.embeddable.archive.ScatteredArchive.Type;
 
+import com.googlecode.jeeunit.impl.ClassFileChangeDetector;
 import com.googlecode.jeeunit.impl.ClasspathFilter;
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
 import com.googlecode.jeeunit.impl.Configuration;
 import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TempSpace;
+import com.googlecode.jeeunit.impl.WarOverlay;
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
 import com.googlecode.jeeunit.impl.ZipExploder;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
@@ -78,6 +87,8 @@ import com.googlecode.jeeunit.spi.ContainerLauncher;
  * (default: 8080)</li>
  * <li>{@code jeeunit.tomcat7.weld.listener} add Weld listener to web.xml?
  * (default: false)</li>
+ * <li>{@code jeeunit.deploy.exploded} deploy the classpath in place instead of
+ * building a WAR (default: false)</li>
  * </ul>
  * 
  * @author hwellmann
@@ -104,6 +115,7 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
     private List<File> metadataFiles = new ArrayList<File>();
 
     private File tempDir;
+    private FileChannel webResourceLease;
 
     private File catalinaHome;
 
@@ -113,6 +125,16 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
 
     private File jeeunitWar;
 
+    /** Lease on the cached WAR used as document base. */
+    private FileChannel warLease;
+
+    private StandardContext appContext;
+
+    private ClassFileChangeDetector changeDetector;
+
+    /** Set while the context is reloaded, to keep the temporary directory. */
+    private volatile boolean reloading;
+
     /**
      * Default filter suppressing Tomcat and Eclipse components from the
      * classpath when building the ad hoc WAR.
@@ -240,42 +262,171 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
     }
 
     private void prepareDirectories() {
+        long start = StartupProfiler.getInstance().start();
         webappsDir = new File(tempDir, "webapps");
         webappsDir.mkdirs();
         webappDir = new File(webappsDir, contextRoot);
         catalinaHome = new File(tempDir, "catalina");
-
+        StartupProfiler.getInstance().record("prepareDirectories", start);
     }
 
+    /**
+     * Builds the ad hoc WAR from the filtered classpath, or reuses a WAR from the
+     * {@link DeploymentCache} if the classpath and metadata have not changed. A base WAR is
+     * merged by a {@link WarOverlay}, without exploding it. The cached WAR is the document
+     * base of the web application, so it is leased until the server is stopped or the WAR is
+     * replaced.
+     */
     private URI buildWar() throws IOException {
-        ScatteredArchive sar;
+        long start = StartupProfiler.getInstance().start();
+        List<File> classpathFiles = getClasspathFiles();
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint(getClass().getName() + ":"
+                + getWarBaseFilter());
+        fingerprint.add(classpathFiles);
+        fingerprint.addMetadata(metadataFiles);
+        fingerprint.add(getWebResourceSource());
+        String key = fingerprint.getKey();
+
+        DeploymentCache cache = new DeploymentCache(config);
+        File war = cache.get(key);
+        if (war == null) {
+            ScatteredArchive sar;
+            File webResourceDir = new File("src/main/webapp");
+            String warBase = config.getWarBase();
+            if (warBase == null && webResourceDir.isDirectory()) {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR, webResourceDir);
+            }
+            else {
+                sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+            }
+            for (File file : classpathFiles) {
+                sar.addClassPath(file);
+            }
+            for (File metadata : metadataFiles) {
+                if (metadata.exists()) {
+                    sar.addMetadata(metadata);
+                }
+            }
+            war = new File(sar.toURI());
+            if (warBase != null) {
+                WarOverlay overlay = new WarOverlay(new File(warBase));
+                overlay.setFilter(getWarBaseFilter());
+                war = overlay.merge(war);
+            }
+            war = cache.put(key, war);
+        }
+        FileChannel lease = cache.leaseWar(war);
+        releaseWar();
+        warLease = lease;
+        jeeunitWar = war;
+        StartupProfiler.getInstance().record("buildWar", start);
+        return war.toURI();
+    }
+
+    /**
+     * Releases the lease on the cached WAR, if any.
+     */
+    private void releaseWar() {
+        if (warLease != null) {
+            try {
+                warLease.close();
+            }
+            catch (IOException exc) {
+                // lease is released anyway
+            }
+            warLease = null;
+        }
+    }
+
+    /**
+     * Adds a web application which uses the classpath directories and JARs in place, without
+     * building a WAR. Only the metadata files are copied to the document base. Web resources
+     * and classpath directories are mapped into the web application by a
+     * {@link VirtualDirContext}, classes are loaded by a {@link VirtualWebappLoader}.
+     * 
+     * @return web application context
+     * @throws IOException
+     * @throws ServletException
+     */
+    private StandardContext addExplodedWebapp() throws IOException, ServletException {
+        File webInf = new File(webappDir, "WEB-INF");
+        webInf.mkdirs();
+        for (File metadata : metadataFiles) {
+            if (metadata.exists()) {
+                FileUtils.copyFileToDirectory(metadata, webInf);
+            }
+        }
+
+        List<File> classpathFiles = getClasspathFiles();
+        StringBuilder virtualClasspath = new StringBuilder();
+        StringBuilder extraResourcePaths = new StringBuilder();
         File webResourceDir = getWebResourceDir();
-        if (webResourceDir.exists() && webResourceDir.isDirectory()) {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR,
-                    webResourceDir);
+        if (webResourceDir.isDirectory()) {
+            appendResourcePath(extraResourcePaths, "/", webResourceDir);
         }
-        else {
-            sar = new ScatteredArchive("jeeunit-autodeploy", Type.WAR);
+        for (File file : classpathFiles) {
+            if (virtualClasspath.length() > 0) {
+                virtualClasspath.append(';');
+            }
+            virtualClasspath.append(file.getAbsolutePath());
+            if (file.isDirectory()) {
+                appendResourcePath(extraResourcePaths, "/WEB-INF/classes", file);
+            }
+        }
+
+        VirtualWebappLoader loader = new VirtualWebappLoader();
+        loader.setLoaderClass(EmbeddedWebappClassLoader.class.getName());
+        loader.setVirtualClasspath(virtualClasspath.toString());
+
+        VirtualDirContext resources = new VirtualDirContext();
+        resources.setExtraResourcePaths(extraResourcePaths.toString());
+
+        StandardContext appContext = (StandardContext) tomcat.addWebapp(contextRoot,
+                webappDir.getAbsolutePath());
+        appContext.setLoader(loader);
+        appContext.setResources(resources);
+        return appContext;
+    }
+
+    private void appendResourcePath(StringBuilder paths, String path, File dir) {
+        if (paths.length() > 0) {
+            paths.append(',');
         }
+        paths.append(path);
+        paths.append('=');
+        paths.append(dir.getAbsolutePath());
+    }
+
+    private List<File> getClasspathFiles() {
+        List<File> classpathFiles = new ArrayList<File>();
         String classpath = System.getProperty("java.class.path");
         String[] pathElems = classpath.split(File.pathSeparator);
 
         for (String pathElem : pathElems) {
             File file = new File(pathElem);
             if (file.exists() && classpathFilter.accept(file)) {
-                sar.addClassPath(file);
+                classpathFiles.add(file);
             }
         }
-        for (File metadata : metadataFiles) {
-            if (metadata.exists()) {
-                sar.addMetadata(metadata);
-            }
+        return classpathFiles;
+    }
+
+    /**
+     * Returns the filter for entries of the base WAR.
+     */
+    private ZipEntryFilter getWarBaseFilter() {
+        return new ZipEntryFilter(config.getWarBaseIncludes(), config.getWarBaseExcludes());
+    }
+
+    /**
+     * Returns the base WAR, if configured, or the web resource directory.
+     */
+    private File getWebResourceSource() {
+        String warBase = config.getWarBase();
+        if (warBase == null) {
+            return new File("src/main/webapp");
         }
-        URI warUri = sar.toURI();
-        File war = new File(warUri);
-        jeeunitWar = new File(webappsDir, "jeeunit.war");
-        FileUtils.copyFile(war, jeeunitWar);
-        return warUri;
+        return new File(warBase);
     }
 
     private File getWebResourceDir() throws IOException {
@@ -286,14 +437,42 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
         }
         else {
             ZipExploder exploder = new ZipExploder();
-            webResourceDir = new File(tempDir, "exploded");
-            webResourceDir.mkdir();
-            exploder.processFile(new File(warBase).getAbsolutePath(),
-                    webResourceDir.getAbsolutePath());
+            exploder.setThreads(config.getWarExplodeThreads());
+            exploder.setFilter(getWarBaseFilter());
+            File userWar = new File(warBase);
+            DeploymentCache cache = new DeploymentCache(config);
+            releaseWebResourceDir();
+            DeploymentCache.ExplodedDir exploded = cache.explode(userWar, exploder);
+            if (exploded == null) {
+                webResourceDir = new File(tempDir, "exploded");
+                exploder.setIncremental(false);
+                webResourceDir.mkdirs();
+                exploder.processFile(userWar.getAbsolutePath(),
+                        webResourceDir.getAbsolutePath());
+            }
+            else {
+                webResourceDir = exploded.getDir();
+                webResourceLease = exploded.getLease();
+            }
         }
         return webResourceDir;
     }
 
+    /**
+     * Releases the lease on the exploded base WAR, if any.
+     */
+    private void releaseWebResourceDir() {
+        if (webResourceLease != null) {
+            try {
+                webResourceLease.close();
+            }
+            catch (IOException exc) {
+                // lease is released anyway
+            }
+            webResourceLease = null;
+        }
+    }
+
     @Override
     public void shutdown() {
         try {
@@ -308,14 +487,23 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
     public URI autodeploy() {
         if (!isDeployed) {
             try {
-                buildWar();
-
-                WebappLoader loader = new WebappLoader();
-                loader.setLoaderClass(EmbeddedWebappClassLoader.class.getName());
-
-                StandardContext appContext = (StandardContext) tomcat
-                        .addWebapp(contextRoot, webappDir.getAbsolutePath());
-                appContext.setLoader(loader);
+                if (!config.isDeployExploded()) {
+                    buildWar();
+                }
+                long start = StartupProfiler.getInstance().start();
+                if (config.isDeployExploded()) {
+                    appContext = addExplodedWebapp();
+                }
+                else {
+                    WebappLoader loader = new WebappLoader();
+                    loader.setLoaderClass(EmbeddedWebappClassLoader.class.getName());
+
+                    // serve the WAR from the archive, without expanding it
+                    appContext = (StandardContext) tomcat.addWebapp(contextRoot,
+                            jeeunitWar.getAbsolutePath());
+                    appContext.setUnpackWAR(false);
+                    appContext.setLoader(loader);
+                }
                 setContextXml(appContext);
                 appContext.addLifecycleListener(this);
 
@@ -332,7 +520,9 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
                 if (config.isEnableWeldListener()) {
                     addWeldBeanManager(appContext);
                 }
+                StartupProfiler.getInstance().record("deploy", start);
                 startServer();
+                changeDetector = new ClassFileChangeDetector(getClasspathFiles());
             }
             catch (IOException exc) {
                 throw new RuntimeException(exc);
@@ -345,12 +535,45 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
         return getContextRootUri();
     }
 
+    /**
+     * Reloads the web application context if classes or resources have changed. Unless
+     * deploying in place, the WAR is rebuilt first.
+     */
+    @Override
+    public synchronized URI update() {
+        if (!isDeployed) {
+            return autodeploy();
+        }
+        if (changeDetector.hasChanged()) {
+            try {
+                if (!config.isDeployExploded()) {
+                    buildWar();
+                    appContext.setDocBase(jeeunitWar.getAbsolutePath());
+                }
+                reloading = true;
+                appContext.reload();
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+            finally {
+                reloading = false;
+            }
+        }
+        return getContextRootUri();
+    }
+
     private void startServer() {
+        long start = StartupProfiler.getInstance().start();
         try {
             tomcat.enableNaming();
             tomcat.setPort(config.getHttpPort());
             tomcat.start();
+            if (config.getHttpPort() == 0) {
+                config.setHttpPort(tomcat.getConnector().getLocalPort());
+            }
             isDeployed = true;
+            StartupProfiler.getInstance().record("startServer", start);
         }
         catch (LifecycleException exc) {
             exc.printStackTrace();
@@ -411,21 +634,15 @@ public class EmbeddedTomcat7Container implements ContainerLauncher,
     }
 
     private File createTempDir() {
-        File tmpRoot = FileUtils.getTempDirectory();
-        File tmpDir = new File(tmpRoot, UUID.randomUUID().toString());
-        tmpDir.mkdir();
-        return tmpDir;
+        return TempSpace.getInstance().createTempDir("tomcat7");
     }
 
     @Override
     public void lifecycleEvent(LifecycleEvent event) {
-        if (event.getType().equals(Lifecycle.AFTER_STOP_EVENT)) {
-            try {
-                FileUtils.deleteDirectory(tempDir);
-            }
-            catch (IOException exc) {
-                // ignore
-            }
+        if (event.getType().equals(Lifecycle.AFTER_STOP_EVENT) && !reloading) {
+            releaseWebResourceDir();
+            releaseWar();
+            TempSpace.getInstance().release(tempDir);
         }
     }
 }
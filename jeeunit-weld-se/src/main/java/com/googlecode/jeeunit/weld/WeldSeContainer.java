@@ -23,6 +23,8 @@ import java.net.URI;
 import org.jboss.weld.environment.se.Weld;
 import org.jboss.weld.environment.se.WeldContainer;
 
+import com.googlecode.jeeunit.cdi.BeanManagerLookup;
+import com.googlecode.jeeunit.impl.StartupProfiler;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
@@ -56,15 +58,19 @@ public class WeldSeContainer implements ContainerLauncher {
     @Override
     public void launch() {
         addShutdownHook();
+        long start = StartupProfiler.getInstance().start();
         weld = new Weld();
         weldContainer = weld.initialize();
+        StartupProfiler.getInstance().record("startServer", start);
     }
 
     @Override
     public void shutdown() {
         if (weld != null) {
             weld.shutdown();
+            weld = null;
         }
+        BeanManagerLookup.invalidate();
     }
 
     @Override
@@ -72,6 +78,14 @@ public class WeldSeContainer implements ContainerLauncher {
         return null;
     }
 
+    /**
+     * There is no application to redeploy.
+     */
+    @Override
+    public URI update() {
+        return autodeploy();
+    }
+
     @Override
     public void setClasspathFilter(FileFilter filter) {
         throw new UnsupportedOperationException();
@@ -19,11 +19,20 @@ package com.googlecode.jeeunit;
 import java.util.Iterator;
 import java.util.ServiceLoader;
 
+import com.googlecode.jeeunit.impl.Configuration;
+import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.DaemonContainerLauncher;
+import com.googlecode.jeeunit.impl.SharedContainerLauncher;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 
 /**
  * Looks up the first {@link ContainerLauncher} implementation via the {@link ServiceLoader}.
  * Make sure to include exactly one implementation on the classpath.
+ * <p>
+ * When {@code jeeunit.daemon} is set, the embedded container is launched by a separate
+ * daemon process, and the launcher returned by this class attaches to the daemon. When
+ * {@code jeeunit.daemon.shared} is set, all test JVMs forked by a build share the daemon,
+ * which is shut down by the last JVM.
  * 
  * @author hwellmann
  *
@@ -39,6 +48,23 @@ public class ContainerLauncherLookup {
      * @throws IllegalStateException if no service implementation is found
      */
     public static ContainerLauncher getContainerLauncher() {
+        Configuration config = new ConfigurationLoader().load();
+        if (config.isDaemonShared()) {
+            return SharedContainerLauncher.getInstance(config);
+        }
+        if (config.isDaemon()) {
+            return new DaemonContainerLauncher(config);
+        }
+        return getEmbeddedContainerLauncher();
+    }
+
+    /**
+     * Returns the ContainerLauncher implementation registered in {@code META-INF/services},
+     * ignoring the daemon configuration.
+     * @return a ContainerLauncher
+     * @throws IllegalStateException if no service implementation is found
+     */
+    public static ContainerLauncher getEmbeddedContainerLauncher() {
         ContainerLauncher launcher = null;
         ServiceLoader<ContainerLauncher> loader = ServiceLoader.load(ContainerLauncher.class);
         Iterator<ContainerLauncher> it = loader.iterator();
@@ -16,43 +16,269 @@
  */
 package com.googlecode.jeeunit;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.internal.runners.model.ReflectiveCallable;
 import org.junit.internal.runners.statements.Fail;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.MultipleFailureException;
 import org.junit.runners.model.Statement;
 
+import com.googlecode.jeeunit.impl.Configuration;
+import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.Constants;
+import com.googlecode.jeeunit.impl.DirectTransport;
+import com.googlecode.jeeunit.impl.RemoteTransport;
+import com.googlecode.jeeunit.impl.StartupProfiler;
+import com.googlecode.jeeunit.impl.TestEvent;
+import com.googlecode.jeeunit.impl.TestEventReader;
+import com.googlecode.jeeunit.impl.TimingReportWriter;
 import com.googlecode.jeeunit.spi.ContainerLauncher;
 import com.googlecode.jeeunit.spi.Injector;
-import com.sun.jersey.api.client.Client;
+import com.googlecode.jeeunit.spi.ReleasingInjector;
+import com.googlecode.jeeunit.spi.TestTimingListener;
 import com.sun.jersey.api.client.WebResource;
 
 public class JeeunitRunner extends BlockJUnit4ClassRunner {
 
+    private static List<TestTimingListener> timingListeners;
+
     private ContainerLauncher launcher;
     private WebResource testRunner;
+    private URI contextRoot;
     private boolean useDelegate;
+    private Configuration config;
+    private Injector injector;
 
     public JeeunitRunner(Class<?> klass) throws InitializationError {
         super(klass);
         System.setProperty("java.util.logging.config.file", "src/test/resources/logging.properties");
+        config = new ConfigurationLoader().load();
         launcher = ContainerLauncherLookup.getContainerLauncher();
         launcher.launch();
-        URI contextRoot = launcher.autodeploy();
+        contextRoot = launcher.autodeploy();
         if (contextRoot != null) {
             useDelegate = true;
             testRunner = getTestRunner(contextRoot);
         }
     }
 
+    /**
+     * In batch mode, runs all test methods of this class in the container with a single
+     * request and forwards the test events to the given notifier as they arrive.
+     */
+    @Override
+    protected Statement childrenInvoker(final RunNotifier notifier) {
+        if (!useDelegate) {
+            return super.childrenInvoker(notifier);
+        }
+        final int threads = getParallelThreads();
+        if (threads > 1) {
+            return new Statement() {
+
+                @Override
+                public void evaluate() throws Throwable {
+                    runRemoteMethodsInParallel(notifier, threads);
+                }
+            };
+        }
+        if (!config.isRemoteBatch()) {
+            return super.childrenInvoker(notifier);
+        }
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                runRemoteClass(notifier);
+            }
+        };
+    }
+
+    /**
+     * The {@link Parallel} annotation takes precedence over the configuration property.
+     * 
+     * @return maximum number of concurrent requests for this class
+     */
+    private int getParallelThreads() {
+        Parallel parallel = getTestClass().getJavaClass().getAnnotation(Parallel.class);
+        if (parallel != null) {
+            return parallel.threads();
+        }
+        return config.getRemoteParallelThreads();
+    }
+
+    private Map<String, Description> getChildDescriptions() {
+        Map<String, Description> descriptions = new LinkedHashMap<String, Description>();
+        for (Description child : getDescription().getChildren()) {
+            descriptions.put(child.getMethodName(), child);
+        }
+        return descriptions;
+    }
+
+    private void runRemoteClass(RunNotifier notifier) throws Throwable {
+        List<Description> children = getDescription().getChildren();
+        Map<String, Description> descriptions = getChildDescriptions();
+        List<String> methodNames = null;
+        if (children.size() != getChildren().size()) {
+            methodNames = new ArrayList<String>(descriptions.keySet());
+        }
+
+        TestEventReader reader = getRemoteTestEvents(methodNames);
+        try {
+            TestEvent event = reader.read();
+            while (event != null) {
+                fireTestEvent(event, descriptions, notifier);
+                event = reader.read();
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Runs each test method with a separate request, with at most {@code threads} requests in
+     * flight. The events of each method are buffered and replayed on the calling thread in
+     * method order, so the notifier sees the same sequence as in sequential mode.
+     */
+    private void runRemoteMethodsInParallel(RunNotifier notifier, int threads) throws Throwable {
+        Map<String, Description> descriptions = getChildDescriptions();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<TestEvent>>> results = new ArrayList<Future<List<TestEvent>>>();
+            for (final String methodName : descriptions.keySet()) {
+                results.add(executorService.submit(new Callable<List<TestEvent>>() {
+
+                    @Override
+                    public List<TestEvent> call() throws Exception {
+                        return readRemoteTestEvents(Collections.singletonList(methodName));
+                    }
+                }));
+            }
+
+            boolean first = true;
+            for (Future<List<TestEvent>> result : results) {
+                List<TestEvent> events;
+                try {
+                    events = result.get();
+                }
+                catch (ExecutionException exc) {
+                    throw exc.getCause();
+                }
+                for (TestEvent event : events) {
+                    // class level events are repeated by each request, report them only once
+                    if (first || event.getMethodName() != null) {
+                        fireTestEvent(event, descriptions, notifier);
+                    }
+                }
+                first = false;
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private List<TestEvent> readRemoteTestEvents(List<String> methodNames) throws IOException {
+        List<TestEvent> events = new ArrayList<TestEvent>();
+        TestEventReader reader = getRemoteTestEvents(methodNames);
+        try {
+            TestEvent event = reader.read();
+            while (event != null) {
+                events.add(event);
+                event = reader.read();
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return events;
+    }
+
+    private void fireTestEvent(TestEvent event, Map<String, Description> descriptions,
+            RunNotifier notifier) {
+        String methodName = event.getMethodName();
+        Description description;
+        if (methodName == null) {
+            description = getDescription();
+        }
+        else {
+            description = descriptions.get(methodName);
+            if (description == null) {
+                description = Description.createTestDescription(getTestClass().getJavaClass(),
+                        methodName);
+            }
+        }
+
+        switch (event.getType()) {
+            case STARTED:
+                notifier.fireTestStarted(description);
+                break;
+            case FINISHED:
+                fireTestTimed(description, event.getPhaseTimings());
+                notifier.fireTestFinished(description);
+                break;
+            case FAILED:
+                notifier.fireTestFailure(new Failure(description, event.getException()));
+                break;
+            case ASSUMPTION_FAILED:
+                notifier.fireTestAssumptionFailed(new Failure(description, event.getException()));
+                break;
+            case IGNORED:
+                notifier.fireTestIgnored(description);
+                break;
+            default:
+                throw new IllegalStateException("unexpected event " + event);
+        }
+    }
+
+    private void fireTestTimed(Description description, PhaseTimings timings) {
+        if (timings == null) {
+            return;
+        }
+        for (TestTimingListener listener : getTimingListeners(config)) {
+            listener.testTimed(description, timings);
+        }
+    }
+
+    /**
+     * Returns the timing listeners registered as services, plus a report writer if configured.
+     * The listeners are shared by all runners.
+     */
+    private static synchronized List<TestTimingListener> getTimingListeners(
+            Configuration config) {
+        if (timingListeners == null) {
+            timingListeners = new ArrayList<TestTimingListener>();
+            for (TestTimingListener listener : ServiceLoader.load(TestTimingListener.class)) {
+                timingListeners.add(listener);
+            }
+            if (config.getTimingReport() != null) {
+                timingListeners.add(new TimingReportWriter(new File(config.getTimingReport())));
+            }
+        }
+        return timingListeners;
+    }
+
     @Override
     protected Statement methodBlock(FrameworkMethod method) {
         if (!useDelegate) {
@@ -93,27 +319,70 @@ public class JeeunitRunner extends BlockJUnit4ClassRunner {
         };
     }
 
-    private Throwable getRemoteTestResult(FrameworkMethod method) throws IOException,
-            ClassNotFoundException {
-        InputStream is = testRunner.queryParam("class", getTestClass().getName())
-                .queryParam("method", method.getName()).get(InputStream.class);
-
-        ObjectInputStream ois = new ObjectInputStream(is);
-        Object object = ois.readObject();
-        if (object instanceof Throwable) {
-            return (Throwable) object;
+    private Throwable getRemoteTestResult(FrameworkMethod method) throws IOException {
+        List<Throwable> failures = new ArrayList<Throwable>();
+        for (TestEvent event : readRemoteTestEvents(Collections.singletonList(method.getName()))) {
+            if (event.getException() != null) {
+                failures.add(event.getException());
+            }
+            if (event.getType() == TestEvent.Type.FINISHED) {
+                fireTestTimed(describeChild(method), event.getPhaseTimings());
+            }
         }
-        else if (object instanceof String) {
+        if (failures.isEmpty()) {
             return null;
         }
-        throw new IllegalStateException();
+        if (failures.size() == 1) {
+            return failures.get(0);
+        }
+        return new MultipleFailureException(failures);
+    }
+
+    /**
+     * Runs the given methods of the test class in the container. With the direct transport,
+     * the tests are run in the same JVM without HTTP if the container has registered a test
+     * runner bridge; otherwise, HTTP is used.
+     * 
+     * @param methodNames
+     *            method names, or null to run all methods
+     * @return reader for the test events streamed by the container
+     * @throws IOException
+     */
+    private TestEventReader getRemoteTestEvents(List<String> methodNames) throws IOException {
+        StartupProfiler profiler = StartupProfiler.getInstance();
+        long start = profiler.start();
+        TestEventReader reader = openRemoteTestEvents(methodNames);
+        profiler.record("firstRequest", start);
+        profiler.finish(config.getStartupReport(), launcher.getClass().getSimpleName());
+        return reader;
+    }
+
+    private TestEventReader openRemoteTestEvents(List<String> methodNames) throws IOException {
+        if (Constants.TRANSPORT_DIRECT.equals(config.getTransport())) {
+            DirectTransport transport = DirectTransport.getInstance();
+            if (transport.isAvailable(contextRoot)) {
+                InputStream is = transport.run(contextRoot, getTestClass().getName(),
+                        methodNames, config.isRemoteSerialization());
+                return new TestEventReader(is);
+            }
+        }
+
+        WebResource resource = testRunner.queryParam("class", getTestClass().getName());
+        if (config.isRemoteSerialization()) {
+            resource = resource.queryParam("serialization", "true");
+        }
+        if (methodNames != null) {
+            for (String methodName : methodNames) {
+                resource = resource.queryParam("method", methodName);
+            }
+        }
+        InputStream is = RemoteTransport.getInstance().get(resource);
+        return new TestEventReader(is);
     }
 
     private WebResource getTestRunner(URI contextRoot) {
         URI uri = contextRoot.resolve("testrunner");
-        Client client = Client.create();
-        return client.resource(uri);
-
+        return RemoteTransport.getInstance().resource(uri);
     }
 
     @Override
@@ -128,16 +397,50 @@ public class JeeunitRunner extends BlockJUnit4ClassRunner {
         }
     }
 
+    /**
+     * Without a container, releases the injected test instance after the {@code @After}
+     * methods have run, if the injector is a {@link ReleasingInjector}.
+     */
+    @Override
+    protected Statement withAfters(FrameworkMethod method, final Object target,
+            Statement statement) {
+        final Statement next = super.withAfters(method, target, statement);
+        if (useDelegate || !(findInjector() instanceof ReleasingInjector)) {
+            return next;
+        }
+        final ReleasingInjector releasingInjector = (ReleasingInjector) findInjector();
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    next.evaluate();
+                }
+                finally {
+                    releasingInjector.release(target);
+                }
+            }
+        };
+    }
+
     private void inject(Object test) {
+        StartupProfiler profiler = StartupProfiler.getInstance();
+        long start = profiler.start();
         Injector injector = findInjector();
         injector.injectFields(test);
+        profiler.record("firstInjection", start);
+        profiler.finish(config.getStartupReport(), launcher.getClass().getSimpleName());
     }
 
-    private Injector findInjector() {
-        Iterator<Injector> it = ServiceLoader.load(Injector.class).iterator();
-        if (it.hasNext()) {
-            return it.next();
+    private synchronized Injector findInjector() {
+        if (injector == null) {
+            Iterator<Injector> it = ServiceLoader.load(Injector.class).iterator();
+            if (!it.hasNext()) {
+                throw new IllegalStateException(
+                        "no Injector implementation found in META-INF/services");
+            }
+            injector = it.next();
         }
-        throw new IllegalStateException("no Injector implementation found in META-INF/services");
+        return injector;
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.googlecode.jeeunit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Use this annotation on a test class run by {@link JeeunitRunner} to dispatch the test methods
+ * to the container concurrently, with at most the given number of requests in flight.
+ * <p>
+ * Each method is run by a separate request, so class level fixtures like {@code @BeforeClass}
+ * are run once per method. Test events are reported in method order.
+ * 
+ * @author hwellmann
+ * 
+ */
+@Target({ ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface Parallel {
+    int threads() default 4;
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.googlecode.jeeunit;
+
+/**
+ * Server-side timings of the phases of a single test run in the container.
+ * <p>
+ * {@link Phase#METHOD} only covers the test method itself, not the {@code @Before} or
+ * {@code @After} methods. The transaction phases are zero for non-transactional tests.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PhaseTimings {
+
+    public enum Phase {
+        /** Field injection into the test instance. */
+        INJECTION,
+
+        /** Transaction lookup and begin. */
+        TRANSACTION_BEGIN,
+
+        /** Test method invocation. */
+        METHOD,
+
+        /** Transaction rollback. */
+        ROLLBACK
+    }
+
+    private long[] nanos = new long[Phase.values().length];
+
+    /**
+     * Returns the duration of the given phase.
+     * 
+     * @param phase
+     *            test phase
+     * @return duration in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Adds the given duration to a phase.
+     * 
+     * @param phase
+     *            test phase
+     * @param duration
+     *            duration in nanoseconds
+     */
+    public void addNanos(Phase phase, long duration) {
+        nanos[phase.ordinal()] += duration;
+    }
+
+    /**
+     * @return sum of all phases in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long duration : nanos) {
+            total += duration;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(phase.name().toLowerCase());
+            sb.append('=');
+            sb.append(getNanos(phase) / 1000);
+            sb.append("us");
+        }
+        return sb.toString();
+    }
+}
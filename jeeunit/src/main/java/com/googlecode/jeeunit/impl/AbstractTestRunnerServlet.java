@@ -18,9 +18,7 @@
 package com.googlecode.jeeunit.impl;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -28,11 +26,8 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
-import org.junit.runner.Request;
-import org.junit.runner.Result;
-import org.junit.runner.notification.Failure;
+import org.junit.runner.Runner;
 
 import com.googlecode.jeeunit.spi.Injector;
 
@@ -40,6 +35,20 @@ import com.googlecode.jeeunit.spi.Injector;
  * Base class for test runner servlets, providing the communication link
  * between the embedded test container and the test driver.
  * <p>
+ * The test class is given by the {@code class} request parameter. The {@code method} parameter
+ * is optional and may be repeated. If it is omitted, all methods of the test class are run in
+ * a single request. The response is a stream of {@link TestEvent}s encoded by
+ * {@link TestEventCodec}, each of which is flushed as soon as it occurs. If the
+ * {@code serialization} parameter is {@code true}, exceptions are also included in Java
+ * serialized form.
+ * <p>
+ * Runners and the injector are cached by a {@link ContainerTestRunnerCache} for the lifetime
+ * of the servlet. A request with a {@code stats} parameter returns the cache statistics as
+ * plain text.
+ * <p>
+ * For test drivers in the same JVM, the servlet also registers a {@link TestRunnerBridge}
+ * which runs tests without HTTP, if the container supports it.
+ * <p>
  * Derived classes shall provide a method of dependency injection.
  * 
  * @author hwellmann
@@ -48,15 +57,57 @@ import com.googlecode.jeeunit.spi.Injector;
 public abstract class AbstractTestRunnerServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
 
+    private transient ContainerTestRunnerCache runnerCache;
+    private transient TestRunnerBridge bridge;
+
+    /**
+     * Registers a {@link TestRunnerBridge} for test drivers running in the same JVM, if the
+     * container supports it.
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        String contextPath = getServletContext().getContextPath();
+        if (!isBridgeSupported()) {
+            log("direct transport not supported by " + getServletContext().getServerInfo());
+            return;
+        }
+        bridge = new TestRunnerBridge(this, Thread.currentThread().getContextClassLoader());
+        if (!bridge.register(contextPath)) {
+            log("cannot register test runner bridge for " + contextPath);
+            bridge = null;
+        }
+    }
+
+    /**
+     * Can tests run correctly outside of a request thread? The bridge runs tests on a thread
+     * of the test driver with the web application class loader as context class loader. This
+     * is enough for Tomcat and Resin, which resolve {@code java:comp} by the context class
+     * loader. GlassFish and JBoss bind {@code java:comp} to an invocation context which only
+     * exists on container threads, so lookups of the {@code UserTransaction} or the
+     * {@code BeanManager} would fail.
+     * 
+     * @return true if the container is Tomcat or Resin
+     */
+    protected boolean isBridgeSupported() {
+        String serverInfo = getServletContext().getServerInfo();
+        return serverInfo.startsWith("Apache Tomcat") || serverInfo.startsWith("Resin");
+    }
+
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
+        if (request.getParameter("stats") != null) {
+            response.setContentType("text/plain");
+            response.getWriter().println(getRunnerCache());
+            return;
+        }
         String className = request.getParameter("class");
-        String methodName = request.getParameter("method");
+        String[] methodNames = request.getParameterValues("method");
+        boolean javaSerialization = Boolean.parseBoolean(request.getParameter("serialization"));
         try {
-            Class<?> clazz = getClass().getClassLoader().loadClass(className);
             response.setContentType("application/octet-stream");
             ServletOutputStream os = response.getOutputStream();
-            runSuite(os, clazz, methodName);
+            runTests(className, methodNames, javaSerialization, os);
             os.flush();
         }
         catch (ClassNotFoundException exc) {
@@ -64,23 +115,74 @@ public abstract class AbstractTestRunnerServlet extends HttpServlet {
         }
     }
 
-    private void runSuite(OutputStream os, Class<?> clazz, String methodName) throws IOException {
+    /**
+     * Runs the given methods of a test class and writes the test events to the given stream.
+     * 
+     * @param className
+     *            test class name
+     * @param methodNames
+     *            method names, or null to run all methods
+     * @param javaSerialization
+     *            include the Java serialized form of exceptions, if possible
+     * @param os
+     *            output stream
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    void runTests(String className, String[] methodNames, boolean javaSerialization,
+            OutputStream os) throws ClassNotFoundException, IOException {
+        // keep a container daemon alive while tests are running
+        ContainerDaemon.notifyDaemon(ContainerDaemon.BEGIN_REQUEST);
+        try {
+            Class<?> clazz = getClass().getClassLoader().loadClass(className);
+            runSuite(os, clazz, methodNames, javaSerialization);
+        }
+        finally {
+            ContainerDaemon.notifyDaemon(ContainerDaemon.END_REQUEST);
+        }
+    }
 
-        Injector injector = createInjector();
-        Request classRequest = new ContainerTestRunnerClassRequest(clazz, injector);
-        Description method = Description.createTestDescription(clazz, methodName);
-        Request request = classRequest.filterWith(method);
+    private void runSuite(OutputStream os, Class<?> clazz, String[] methodNames,
+            boolean javaSerialization) throws IOException {
 
+        Runner runner = getRunnerCache().getRunner(clazz, methodNames);
         JUnitCore core = new JUnitCore();
-        Result result = core.run(request);
-        List<Failure> failures = result.getFailures();
-        ObjectOutputStream oos = new ObjectOutputStream(os);
-        for (Failure failure : failures) {
-            oos.writeObject(failure.getException());
+        core.addListener(new TestEventWriter(os, javaSerialization));
+        try {
+            core.run(runner);
+        }
+        finally {
+            PhaseRecorder.finish();
+        }
+    }
+
+    /**
+     * Returns the runner cache, creating it and the injector on first use, when the
+     * dependency injection container of the application has been started.
+     * 
+     * @return runner cache
+     */
+    private synchronized ContainerTestRunnerCache getRunnerCache() {
+        if (runnerCache == null) {
+            runnerCache = new ContainerTestRunnerCache(createInjector());
+        }
+        return runnerCache;
+    }
+
+    @Override
+    public void destroy() {
+        if (bridge != null) {
+            bridge.unregister();
+            bridge = null;
         }
-        if (failures.isEmpty()) {
-            oos.writeObject("ok");
+        synchronized (this) {
+            if (runnerCache != null) {
+                log("test runner cache: " + runnerCache);
+                runnerCache.clear();
+                runnerCache = null;
+            }
         }
+        super.destroy();
     }
 
     /**
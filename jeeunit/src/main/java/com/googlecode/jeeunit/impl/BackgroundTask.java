@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a task on a background daemon thread, so that the caller can do other work in the
+ * meantime, and measures how much of the task's run time was hidden behind that work.
+ * 
+ * @author hwellmann
+ * 
+ * @param <T>
+ *            result type
+ */
+public class BackgroundTask<T> {
+
+    private String name;
+    private FutureTask<T> future;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private long waitNanos;
+
+    /**
+     * Starts the given task.
+     * 
+     * @param name
+     *            thread name
+     * @param task
+     *            task to be run
+     */
+    public BackgroundTask(String name, final Callable<T> task) {
+        this.name = name;
+        this.future = new FutureTask<T>(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                startNanos = System.nanoTime();
+                try {
+                    return task.call();
+                }
+                finally {
+                    endNanos = System.nanoTime();
+                }
+            }
+        });
+        Thread thread = new Thread(future, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the task to complete and returns its result. Exceptions thrown by the task
+     * are rethrown.
+     * 
+     * @return task result
+     * @throws IOException
+     *             thrown by the task
+     */
+    public T get() throws IOException {
+        long waitStart = System.nanoTime();
+        try {
+            return future.get();
+        }
+        catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exc);
+        }
+        catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        finally {
+            waitNanos = System.nanoTime() - waitStart;
+        }
+    }
+
+    /**
+     * @return run time of the task in nanoseconds
+     */
+    public long getRunNanos() {
+        return endNanos - startNanos;
+    }
+
+    /**
+     * @return time in nanoseconds the caller was blocked in {@link #get()}
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return run time of the task in nanoseconds which overlapped with the caller's work
+     */
+    public long getOverlapNanos() {
+        return Math.max(0, getRunNanos() - getWaitNanos());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: run=%d ms wait=%d ms overlap=%d ms", name,
+                getRunNanos() / 1000000, getWaitNanos() / 1000000, getOverlapNanos() / 1000000);
+    }
+}
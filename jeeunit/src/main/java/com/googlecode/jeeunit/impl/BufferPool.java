@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed size byte buffers for copying streams. A buffer is allocated only when the
+ * pool is empty, so the memory used for copying is bounded by the number of concurrent
+ * copies and does not depend on the size of the data.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED = 16;
+
+    private static BufferPool instance;
+
+    private LinkedList<byte[]> buffers = new LinkedList<byte[]>();
+
+    private AtomicLong allocated = new AtomicLong();
+
+    private BufferPool() {
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating a new one if the pool is empty. The caller
+     * must return the buffer by calling {@link #release(byte[])}.
+     * 
+     * @return buffer of {@link #BUFFER_SIZE} bytes
+     */
+    public byte[] acquire() {
+        synchronized (buffers) {
+            if (!buffers.isEmpty()) {
+                return buffers.removeFirst();
+            }
+        }
+        allocated.incrementAndGet();
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * 
+     * @param buffer
+     *            buffer obtained from {@link #acquire()}
+     */
+    public void release(byte[] buffer) {
+        synchronized (buffers) {
+            if (buffers.size() < MAX_POOLED) {
+                buffers.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return number of buffers allocated by this pool
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects changes of class files and resources in classpath directories, e.g. the main and test
+ * output folders of a project, since the last deployment. JAR files on the classpath are not
+ * watched.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ClassFileChangeDetector {
+
+    private List<File> directories = new ArrayList<File>();
+    private Map<String, FileState> snapshot = new HashMap<String, FileState>();
+
+    /**
+     * Creates a detector for the directories among the given classpath files and takes an
+     * initial snapshot.
+     * 
+     * @param classpathFiles
+     *            directories and JARs
+     */
+    public ClassFileChangeDetector(List<File> classpathFiles) {
+        for (File file : classpathFiles) {
+            if (file.isDirectory()) {
+                directories.add(file);
+            }
+        }
+        snapshot = takeSnapshot();
+    }
+
+    /**
+     * Checks if any file has been added, removed or modified since the last call, or since
+     * construction, and takes a new snapshot.
+     * 
+     * @return true if there are changes
+     */
+    public boolean hasChanged() {
+        Map<String, FileState> current = takeSnapshot();
+        boolean changed = !current.equals(snapshot);
+        snapshot = current;
+        return changed;
+    }
+
+    private Map<String, FileState> takeSnapshot() {
+        Map<String, FileState> files = new HashMap<String, FileState>();
+        for (File dir : directories) {
+            addFiles(files, dir);
+        }
+        return files;
+    }
+
+    private void addFiles(Map<String, FileState> files, File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addFiles(files, child);
+            }
+            else {
+                files.put(child.getPath(), new FileState(child));
+            }
+        }
+    }
+
+    /**
+     * Modification time and size of a file. A change of either is a change of the file.
+     */
+    private static class FileState {
+
+        private long lastModified;
+        private long length;
+
+        FileState(File file) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) obj;
+            return lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ (lastModified >>> 32)) * 31
+                    + (int) (length ^ (length >>> 32));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Computes a fingerprint of a set of files and directories from their paths, sizes and
+ * modification times. Directories are walked recursively. Files which do not exist are
+ * included by path only, so that creating them changes the fingerprint.
+ * <p>
+ * Metadata files are included by name and content instead, since launchers may generate
+ * default metadata in a new temporary directory on every run.
+ * <p>
+ * The fingerprint depends on the order in which files are added.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ClasspathFingerprint {
+
+    private MessageDigest digest;
+
+    /**
+     * Creates a fingerprint.
+     * 
+     * @param salt
+     *            distinguishes fingerprints of the same files built for different purposes
+     */
+    public ClasspathFingerprint(String salt) {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+        update(salt);
+    }
+
+    public ClasspathFingerprint add(Collection<File> files) {
+        for (File file : files) {
+            add(file);
+        }
+        return this;
+    }
+
+    public ClasspathFingerprint add(File file) {
+        update(file.getAbsolutePath());
+        addContents(file);
+        return this;
+    }
+
+    /**
+     * Adds metadata files by file name and content, independent of their location and
+     * modification time.
+     * 
+     * @param files
+     *            metadata files, which need not exist
+     * @return this fingerprint
+     */
+    public ClasspathFingerprint addMetadata(Collection<File> files) {
+        for (File file : files) {
+            update(file.getName());
+            if (file.isFile()) {
+                addBytes(file);
+            }
+            else {
+                update("?");
+            }
+        }
+        return this;
+    }
+
+    private void addBytes(File file) {
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                }
+            }
+            finally {
+                is.close();
+            }
+            update(Long.toString(file.length()));
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    private void addContents(File file) {
+        if (file.isDirectory()) {
+            update("/");
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    update(child.getName());
+                    addContents(child);
+                }
+            }
+            update("..");
+        }
+        else if (file.exists()) {
+            update(Long.toString(file.length()));
+            update(Long.toString(file.lastModified()));
+        }
+        else {
+            update("?");
+        }
+    }
+
+    private void update(String s) {
+        try {
+            digest.update(s.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        }
+        catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of all files added so far. No more files may be added after
+     * calling this method.
+     * 
+     * @return fingerprint as hex string
+     */
+    public String getKey() {
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+}
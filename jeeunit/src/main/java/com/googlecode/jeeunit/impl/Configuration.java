@@ -17,13 +17,42 @@
  */
 package com.googlecode.jeeunit.impl;
 
+import java.io.File;
+
 public class Configuration {
 
     private int httpPort = Integer.parseInt(Constants.HTTP_PORT_DEFAULT);
+    private int httpConnectTimeout = Integer.parseInt(Constants.HTTP_CONNECT_TIMEOUT_DEFAULT);
+    private int httpReadTimeout = Integer.parseInt(Constants.HTTP_READ_TIMEOUT_DEFAULT);
+    private int httpMaxConnections = Integer.parseInt(Constants.HTTP_MAX_CONNECTIONS_DEFAULT);
     private boolean enableWeldListener;
     private String warBase;
+    private String warBaseIncludes;
+    private String warBaseExcludes;
+    private int warExplodeThreads;
     private String serverHome;
+    private boolean remoteBatch = true;
+    private boolean remoteSerialization;
+    private int remoteParallelThreads = 1;
+    private String timingReport;
+    private String startupReport;
+    private String transport = Constants.TRANSPORT_HTTP;
+    private boolean deployCache = true;
+    private String deployCacheDir = new File(System.getProperty("java.io.tmpdir"), "jeeunit-cache")
+        .getPath();
+    private boolean deployExploded;
+    private String tempDir = new File(System.getProperty("java.io.tmpdir"), "jeeunit-tmp")
+        .getPath();
+    private int deployCacheSize = Integer.parseInt(Constants.DEPLOY_CACHE_SIZE_DEFAULT);
+    private boolean daemon;
+    private boolean daemonShared;
+    private int daemonPort = Integer.parseInt(Constants.DAEMON_PORT_DEFAULT);
+    private int daemonIdleTimeout = Integer.parseInt(Constants.DAEMON_IDLE_TIMEOUT_DEFAULT);
+    private int daemonStartTimeout = Integer.parseInt(Constants.DAEMON_START_TIMEOUT_DEFAULT);
 
+    /**
+     * @return HTTP port of the container, 0 = any free port chosen on launch
+     */
     public int getHttpPort() {
         return httpPort;
     }
@@ -32,6 +61,39 @@ public class Configuration {
         this.httpPort = httpPort;
     }
 
+    /**
+     * @return connect timeout in milliseconds, 0 = infinite
+     */
+    public int getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    public void setHttpConnectTimeout(int httpConnectTimeout) {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    /**
+     * @return read timeout in milliseconds, 0 = infinite
+     */
+    public int getHttpReadTimeout() {
+        return httpReadTimeout;
+    }
+
+    public void setHttpReadTimeout(int httpReadTimeout) {
+        this.httpReadTimeout = httpReadTimeout;
+    }
+
+    /**
+     * @return maximum number of pooled HTTP connections to the test container
+     */
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    public void setHttpMaxConnections(int httpMaxConnections) {
+        this.httpMaxConnections = httpMaxConnections;
+    }
+
     public boolean isEnableWeldListener() {
         return enableWeldListener;
     }
@@ -48,6 +110,41 @@ public class Configuration {
         this.warBase = warBase;
     }
 
+    /**
+     * @return comma separated include rules for entries of the base WAR, or null
+     * @see ZipEntryFilter
+     */
+    public String getWarBaseIncludes() {
+        return warBaseIncludes;
+    }
+
+    public void setWarBaseIncludes(String warBaseIncludes) {
+        this.warBaseIncludes = warBaseIncludes;
+    }
+
+    /**
+     * @return comma separated exclude rules for entries of the base WAR, or null
+     * @see ZipEntryFilter
+     */
+    public String getWarBaseExcludes() {
+        return warBaseExcludes;
+    }
+
+    public void setWarBaseExcludes(String warBaseExcludes) {
+        this.warBaseExcludes = warBaseExcludes;
+    }
+
+    /**
+     * @return number of threads for exploding the base WAR, or 0 for one per processor
+     */
+    public int getWarExplodeThreads() {
+        return warExplodeThreads;
+    }
+
+    public void setWarExplodeThreads(int warExplodeThreads) {
+        this.warExplodeThreads = warExplodeThreads;
+    }
+
     public String getServerHome() {
         return serverHome;
     }
@@ -56,4 +153,170 @@ public class Configuration {
         this.serverHome = serverHome;
     }
 
+    public boolean isRemoteBatch() {
+        return remoteBatch;
+    }
+
+    public void setRemoteBatch(boolean remoteBatch) {
+        this.remoteBatch = remoteBatch;
+    }
+
+    public boolean isRemoteSerialization() {
+        return remoteSerialization;
+    }
+
+    public void setRemoteSerialization(boolean remoteSerialization) {
+        this.remoteSerialization = remoteSerialization;
+    }
+
+    /**
+     * @return maximum number of concurrent requests per test class, 1 = sequential
+     */
+    public int getRemoteParallelThreads() {
+        return remoteParallelThreads;
+    }
+
+    public void setRemoteParallelThreads(int remoteParallelThreads) {
+        this.remoteParallelThreads = remoteParallelThreads;
+    }
+
+    /**
+     * @return path of the CSV file for server-side phase timings, or null
+     */
+    public String getTimingReport() {
+        return timingReport;
+    }
+
+    public void setTimingReport(String timingReport) {
+        this.timingReport = timingReport;
+    }
+
+    /**
+     * @return file to which startup phases are appended, or null
+     */
+    public String getStartupReport() {
+        return startupReport;
+    }
+
+    public void setStartupReport(String startupReport) {
+        this.startupReport = startupReport;
+    }
+
+    /**
+     * @return transport between test driver and container, {@code http} or {@code direct}.
+     *         The direct transport is only supported by Tomcat and Resin, other containers
+     *         fall back to HTTP.
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public boolean isDeployCache() {
+        return deployCache;
+    }
+
+    public void setDeployCache(boolean deployCache) {
+        this.deployCache = deployCache;
+    }
+
+    public String getDeployCacheDir() {
+        return deployCacheDir;
+    }
+
+    public void setDeployCacheDir(String deployCacheDir) {
+        this.deployCacheDir = deployCacheDir;
+    }
+
+    /**
+     * @return maximum number of WARs in the deployment cache
+     */
+    public int getDeployCacheSize() {
+        return deployCacheSize;
+    }
+
+    public void setDeployCacheSize(int deployCacheSize) {
+        this.deployCacheSize = deployCacheSize;
+    }
+
+    /**
+     * @return root directory for the temporary directories of all containers
+     */
+    public String getTempDir() {
+        return tempDir;
+    }
+
+    public void setTempDir(String tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * @return deploy the classpath in place, without building a WAR?
+     */
+    public boolean isDeployExploded() {
+        return deployExploded;
+    }
+
+    public void setDeployExploded(boolean deployExploded) {
+        this.deployExploded = deployExploded;
+    }
+
+    /**
+     * @return attach to a container kept warm by a daemon process instead of launching it?
+     */
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    /**
+     * @return share the daemon between concurrent test JVMs and shut it down with the last one?
+     */
+    public boolean isDaemonShared() {
+        return daemonShared;
+    }
+
+    public void setDaemonShared(boolean daemonShared) {
+        this.daemonShared = daemonShared;
+    }
+
+    /**
+     * @return loopback port of the container daemon
+     */
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
+    public void setDaemonPort(int daemonPort) {
+        this.daemonPort = daemonPort;
+    }
+
+    /**
+     * @return time in milliseconds after which an unused daemon terminates
+     */
+    public int getDaemonIdleTimeout() {
+        return daemonIdleTimeout;
+    }
+
+    public void setDaemonIdleTimeout(int daemonIdleTimeout) {
+        this.daemonIdleTimeout = daemonIdleTimeout;
+    }
+
+    /**
+     * @return time in milliseconds to wait for a daemon to launch its container
+     */
+    public int getDaemonStartTimeout() {
+        return daemonStartTimeout;
+    }
+
+    public void setDaemonStartTimeout(int daemonStartTimeout) {
+        this.daemonStartTimeout = daemonStartTimeout;
+    }
+
 }
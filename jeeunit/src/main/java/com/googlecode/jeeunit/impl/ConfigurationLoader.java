@@ -21,30 +21,146 @@ import static com.googlecode.jeeunit.impl.Constants.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Loads the jeeunit configuration from {@code jeeunit.properties} in the classpath root.
+ * System properties with the {@code jeeunit.} prefix override the properties from the file.
+ * <p>
+ * The file and the system properties are read only once per class loader. Each call to
+ * {@link #load()} returns a new {@link Configuration} built from the cached properties, so
+ * that launchers may adjust their copy, e.g. to set an allocated port.
+ * 
+ * @author hwellmann
+ * 
+ */
 public class ConfigurationLoader {
 
+    private static Properties properties;
+
     public Configuration load() {
         Configuration config = new Configuration();
-        Properties props = new Properties();
-        InputStream is = getClass().getResourceAsStream("/" + CONFIG_PROPERTIES);
-        if (is != null) {
-            try {
-                props.load(is);
+        Properties props = getProperties();
+
+        String httpPortString = props.getProperty(KEY_HTTP_PORT, HTTP_PORT_DEFAULT);
+        config.setHttpPort(Integer.valueOf(httpPortString));
+
+        String connectTimeoutString = props.getProperty(KEY_HTTP_CONNECT_TIMEOUT,
+                HTTP_CONNECT_TIMEOUT_DEFAULT);
+        config.setHttpConnectTimeout(Integer.valueOf(connectTimeoutString));
+
+        String readTimeoutString = props.getProperty(KEY_HTTP_READ_TIMEOUT,
+                HTTP_READ_TIMEOUT_DEFAULT);
+        config.setHttpReadTimeout(Integer.valueOf(readTimeoutString));
+
+        String maxConnectionsString = props.getProperty(KEY_HTTP_MAX_CONNECTIONS,
+                HTTP_MAX_CONNECTIONS_DEFAULT);
+        config.setHttpMaxConnections(Integer.valueOf(maxConnectionsString));
+
+        String weldListenerString = props.getProperty(KEY_WELD_LISTENER, "false");
+        config.setEnableWeldListener(Boolean.parseBoolean(weldListenerString));
+
+        config.setWarBase(props.getProperty(KEY_WAR_BASE));
+        config.setWarBaseIncludes(props.getProperty(KEY_WAR_BASE_INCLUDES));
+        config.setWarBaseExcludes(props.getProperty(KEY_WAR_BASE_EXCLUDES));
+        String explodeThreadsString = props.getProperty(KEY_WAR_EXPLODE_THREADS, "0");
+        config.setWarExplodeThreads(Integer.valueOf(explodeThreadsString));
+        config.setServerHome(props.getProperty(KEY_SERVER_HOME));
+
+        String remoteBatchString = props.getProperty(KEY_REMOTE_BATCH, "true");
+        config.setRemoteBatch(Boolean.parseBoolean(remoteBatchString));
+
+        String remoteSerializationString = props.getProperty(KEY_REMOTE_SERIALIZATION, "false");
+        config.setRemoteSerialization(Boolean.parseBoolean(remoteSerializationString));
+
+        String parallelThreadsString = props.getProperty(KEY_REMOTE_PARALLEL_THREADS, "1");
+        config.setRemoteParallelThreads(Integer.valueOf(parallelThreadsString));
+
+        config.setTimingReport(props.getProperty(KEY_REPORT_TIMINGS));
+        config.setStartupReport(props.getProperty(KEY_REPORT_STARTUP));
+        config.setTransport(props.getProperty(KEY_TRANSPORT, TRANSPORT_HTTP));
+
+        String deployCacheString = props.getProperty(KEY_DEPLOY_CACHE, "true");
+        config.setDeployCache(Boolean.parseBoolean(deployCacheString));
+
+        String deployCacheDir = props.getProperty(KEY_DEPLOY_CACHE_DIR);
+        if (deployCacheDir != null) {
+            config.setDeployCacheDir(deployCacheDir);
+        }
+
+        String deployCacheSizeString = props.getProperty(KEY_DEPLOY_CACHE_SIZE,
+                DEPLOY_CACHE_SIZE_DEFAULT);
+        config.setDeployCacheSize(Integer.valueOf(deployCacheSizeString));
+
+        String tempDir = props.getProperty(KEY_TEMP_DIR);
+        if (tempDir != null) {
+            config.setTempDir(tempDir);
+        }
+
+        String deployExplodedString = props.getProperty(KEY_DEPLOY_EXPLODED, "false");
+        config.setDeployExploded(Boolean.parseBoolean(deployExplodedString));
+
+        String daemonString = props.getProperty(KEY_DAEMON, "false");
+        config.setDaemon(Boolean.parseBoolean(daemonString));
+
+        String daemonSharedString = props.getProperty(KEY_DAEMON_SHARED, "false");
+        config.setDaemonShared(Boolean.parseBoolean(daemonSharedString));
+
+        String daemonPortString = props.getProperty(KEY_DAEMON_PORT, DAEMON_PORT_DEFAULT);
+        config.setDaemonPort(Integer.valueOf(daemonPortString));
+
+        String idleTimeoutString = props.getProperty(KEY_DAEMON_IDLE_TIMEOUT,
+                DAEMON_IDLE_TIMEOUT_DEFAULT);
+        config.setDaemonIdleTimeout(Integer.valueOf(idleTimeoutString));
+
+        String startTimeoutString = props.getProperty(KEY_DAEMON_START_TIMEOUT,
+                DAEMON_START_TIMEOUT_DEFAULT);
+        config.setDaemonStartTimeout(Integer.valueOf(startTimeoutString));
+        return config;
+    }
+
+    /**
+     * Returns the effective configuration properties, reading them on the first call. Only
+     * the first call is recorded by the {@link StartupProfiler}.
+     * 
+     * @return properties, not to be modified
+     */
+    private static synchronized Properties getProperties() {
+        if (properties == null) {
+            long start = StartupProfiler.getInstance().start();
+            Properties props = new Properties();
+            InputStream is = ConfigurationLoader.class.getResourceAsStream("/" + CONFIG_PROPERTIES);
+            if (is != null) {
+                try {
+                    try {
+                        props.load(is);
+                    }
+                    finally {
+                        is.close();
+                    }
+                }
+                catch (IOException exc) {
+                    throw new RuntimeException(exc);
+                }
             }
-            catch (IOException exc) {
-                throw new RuntimeException(exc);
+            for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+                String key = entry.getKey().toString();
+                if (key.startsWith("jeeunit.")) {
+                    props.setProperty(key, entry.getValue().toString());
+                }
             }
-            String httpPortString = props.getProperty(KEY_HTTP_PORT, HTTP_PORT_DEFAULT);
-            config.setHttpPort(Integer.valueOf(httpPortString));
-            
-            String weldListenerString = props.getProperty(KEY_WELD_LISTENER, "false");
-            config.setEnableWeldListener(Boolean.parseBoolean(weldListenerString));
-
-            config.setWarBase(props.getProperty(KEY_WAR_BASE));
-            config.setServerHome(props.getProperty(KEY_SERVER_HOME));
+            properties = props;
+            StartupProfiler.getInstance().record("config", start);
         }
-        return config;
+        return properties;
+    }
+
+    /**
+     * Discards the cached properties, so that the next call to {@link #load()} reads the
+     * configuration file and system properties again.
+     */
+    public static synchronized void reset() {
+        properties = null;
     }
 }
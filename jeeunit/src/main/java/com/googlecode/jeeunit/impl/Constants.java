@@ -34,10 +34,41 @@ public class Constants {
     public static final String TESTRUNNER_NAME = "testrunner";
     public static final String TESTRUNNER_URL = "/testrunner";
     public static final String HTTP_PORT_DEFAULT = "8080";
+    public static final String HTTP_CONNECT_TIMEOUT_DEFAULT = "10000";
+    public static final String HTTP_READ_TIMEOUT_DEFAULT = "0";
+    public static final String HTTP_MAX_CONNECTIONS_DEFAULT = "5";
+    public static final String DEPLOY_CACHE_SIZE_DEFAULT = "3";
+    public static final String DAEMON_PORT_DEFAULT = "9595";
+    public static final String DAEMON_IDLE_TIMEOUT_DEFAULT = "1800000";
+    public static final String DAEMON_START_TIMEOUT_DEFAULT = "300000";
+    public static final String TRANSPORT_HTTP = "http";
+    public static final String TRANSPORT_DIRECT = "direct";
 
     public static final String CONFIG_PROPERTIES = "jeeunit.properties";
     public static final String KEY_HTTP_PORT = "jeeunit.http.port";
+    public static final String KEY_HTTP_CONNECT_TIMEOUT = "jeeunit.http.connectTimeout";
+    public static final String KEY_HTTP_READ_TIMEOUT = "jeeunit.http.readTimeout";
+    public static final String KEY_HTTP_MAX_CONNECTIONS = "jeeunit.http.maxConnections";
     public static final String KEY_WELD_LISTENER = "jeeunit.weld.listener";
     public static final String KEY_WAR_BASE = "jeeunit.war.base";
+    public static final String KEY_WAR_BASE_INCLUDES = "jeeunit.war.base.includes";
+    public static final String KEY_WAR_BASE_EXCLUDES = "jeeunit.war.base.excludes";
+    public static final String KEY_WAR_EXPLODE_THREADS = "jeeunit.war.explode.threads";
     public static final String KEY_SERVER_HOME = "jeeunit.server.home";
+    public static final String KEY_REMOTE_BATCH = "jeeunit.remote.batch";
+    public static final String KEY_REMOTE_PARALLEL_THREADS = "jeeunit.remote.parallel.threads";
+    public static final String KEY_REMOTE_SERIALIZATION = "jeeunit.remote.serialization";
+    public static final String KEY_DEPLOY_CACHE = "jeeunit.deploy.cache";
+    public static final String KEY_DEPLOY_CACHE_DIR = "jeeunit.deploy.cache.dir";
+    public static final String KEY_DEPLOY_CACHE_SIZE = "jeeunit.deploy.cache.size";
+    public static final String KEY_DEPLOY_EXPLODED = "jeeunit.deploy.exploded";
+    public static final String KEY_TEMP_DIR = "jeeunit.temp.dir";
+    public static final String KEY_TRANSPORT = "jeeunit.transport";
+    public static final String KEY_DAEMON = "jeeunit.daemon";
+    public static final String KEY_DAEMON_SHARED = "jeeunit.daemon.shared";
+    public static final String KEY_DAEMON_PORT = "jeeunit.daemon.port";
+    public static final String KEY_DAEMON_IDLE_TIMEOUT = "jeeunit.daemon.idleTimeout";
+    public static final String KEY_DAEMON_START_TIMEOUT = "jeeunit.daemon.startTimeout";
+    public static final String KEY_REPORT_TIMINGS = "jeeunit.report.timings";
+    public static final String KEY_REPORT_STARTUP = "jeeunit.report.startup";
 }
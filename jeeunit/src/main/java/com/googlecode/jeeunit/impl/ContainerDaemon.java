@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.googlecode.jeeunit.ContainerLauncherLookup;
+import com.googlecode.jeeunit.spi.ContainerLauncher;
+
+/**
+ * Standalone process keeping an embedded container warm for {@link DaemonContainerLauncher}.
+ * <p>
+ * The daemon launches the container found by
+ * {@link ContainerLauncherLookup#getEmbeddedContainerLauncher()} and listens on a loopback
+ * port. Each connection carries one command line and receives one response line, either
+ * {@code OK [result]} or {@code ERROR message}:
+ * <ul>
+ * <li>{@code PING} returns the classpath fingerprint and the working directory of the
+ * daemon.</li>
+ * <li>{@code ATTACH} deploys or updates the application and returns its context root URI.</li>
+ * <li>{@code METADATA path} adds a file to the {@code WEB-INF/} folder of the application.</li>
+ * <li>{@code SHUTDOWN} stops the container and the daemon.</li>
+ * </ul>
+ * The daemon terminates when it has neither received any command nor run any test for
+ * {@code jeeunit.daemon.idleTimeout} milliseconds. The test runner servlet reports running
+ * tests to the daemon via the platform MBean server, see {@link #notifyDaemon(String)}, so
+ * that a long test run is not interrupted. Its output is written to
+ * {@code jeeunit-daemon-<port>.log} in the temporary directory.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ContainerDaemon implements ContainerDaemonMBean {
+
+    public static final String PING = "PING";
+    public static final String ATTACH = "ATTACH";
+    public static final String METADATA = "METADATA";
+    public static final String SHUTDOWN = "SHUTDOWN";
+    public static final String OK = "OK";
+    public static final String ERROR = "ERROR";
+
+    static final String BEGIN_REQUEST = "beginRequest";
+    static final String END_REQUEST = "endRequest";
+
+    private static final int ACCEPT_TIMEOUT = 1000;
+    private static final int READ_TIMEOUT = 10000;
+
+    private static Logger log = Logger.getLogger(ContainerDaemon.class.getName());
+
+    private Configuration config;
+    private ContainerLauncher launcher;
+    private String fingerprint;
+    private String workingDir;
+    private volatile long lastActivity;
+    private AtomicInteger activeRequests = new AtomicInteger();
+    private boolean running;
+
+    public ContainerDaemon(Configuration config, ContainerLauncher launcher) {
+        this.config = config;
+        this.launcher = launcher;
+        this.workingDir = System.getProperty("user.dir");
+        this.fingerprint = getClasspathFingerprint(System.getProperty("java.class.path"),
+                workingDir);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuration config = new ConfigurationLoader().load();
+        redirectOutput(getLogFile(config.getDaemonPort()));
+        ContainerLauncher launcher = ContainerLauncherLookup.getEmbeddedContainerLauncher();
+        new ContainerDaemon(config, launcher).run();
+
+        // the container may leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Returns the log file of the daemon listening on the given port.
+     * 
+     * @param port
+     *            daemon port
+     * @return log file
+     */
+    public static File getLogFile(int port) {
+        return new File(System.getProperty("java.io.tmpdir"), "jeeunit-daemon-" + port + ".log");
+    }
+
+    /**
+     * Returns the name of the daemon in the platform MBean server.
+     * 
+     * @return object name
+     */
+    public static ObjectName getObjectName() {
+        try {
+            return new ObjectName("com.googlecode.jeeunit:type=Daemon");
+        }
+        catch (MalformedObjectNameException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+    }
+
+    /**
+     * Invokes an operation of the daemon running in the current JVM, if any. The daemon is
+     * accessed via the platform MBean server, since the caller may be loaded by a web
+     * application class loader.
+     * 
+     * @param operation
+     *            {@link #BEGIN_REQUEST} or {@link #END_REQUEST}
+     */
+    static void notifyDaemon(String operation) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName();
+        try {
+            if (server.isRegistered(name)) {
+                server.invoke(name, operation, null, null);
+            }
+        }
+        catch (JMException exc) {
+            log.log(Level.FINE, "cannot notify jeeunit daemon", exc);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the classpath archives, the working directory and the
+     * jeeunit configuration, including {@code jeeunit.*} system properties other than the
+     * daemon port. The daemon cannot serve a client with a different fingerprint.
+     * Changes in classpath directories are not included, since they are handled by
+     * {@link ContainerLauncher#update()}.
+     * 
+     * @param classpath
+     *            classpath in platform syntax
+     * @param workingDir
+     *            working directory
+     * @return fingerprint
+     */
+    public static String getClasspathFingerprint(String classpath, String workingDir) {
+        Map<String, String> props = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+            String key = entry.getKey().toString();
+            if (key.startsWith("jeeunit.") && !key.equals(Constants.KEY_DAEMON_PORT)) {
+                props.put(key, entry.getValue().toString());
+            }
+        }
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint("daemon:" + workingDir + ":"
+                + props);
+        for (String entry : classpath.split(File.pathSeparator)) {
+            File file = new File(entry);
+            if (entry.length() > 0 && !file.isDirectory()) {
+                fingerprint.add(file);
+            }
+        }
+        URL configUrl = ContainerDaemon.class.getResource("/" + Constants.CONFIG_PROPERTIES);
+        if (configUrl != null && "file".equals(configUrl.getProtocol())) {
+            try {
+                fingerprint.add(new File(configUrl.toURI()));
+            }
+            catch (URISyntaxException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+        return fingerprint.getKey();
+    }
+
+    private static void redirectOutput(File logFile) throws IOException {
+        PrintStream ps = new PrintStream(new FileOutputStream(logFile), true);
+        System.setOut(ps);
+        System.setErr(ps);
+
+        // recreate the console handler with the new error stream, using the logging
+        // configuration forwarded by the client, if any
+        LogManager.getLogManager().readConfiguration();
+    }
+
+    /**
+     * Launches the container and processes commands until shutdown or idle timeout.
+     * 
+     * @throws IOException
+     *             if the daemon port cannot be bound
+     */
+    public void run() throws IOException {
+        int port = config.getDaemonPort();
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        boolean launched = false;
+        try {
+            server.registerMBean(this, getObjectName());
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+            log.info("jeeunit daemon listening on port " + port);
+            launcher.launch();
+            launched = true;
+            running = true;
+            lastActivity = System.currentTimeMillis();
+            while (running) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                }
+                catch (SocketTimeoutException exc) {
+                    if (isIdle()) {
+                        log.info("idle timeout, shutting down");
+                        running = false;
+                    }
+                    continue;
+                }
+                handle(socket);
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+        catch (JMException exc) {
+            throw new IllegalStateException("cannot register jeeunit daemon MBean", exc);
+        }
+        finally {
+            // keep the port bound until the container has released its resources
+            if (launched) {
+                launcher.shutdown();
+            }
+            try {
+                server.unregisterMBean(getObjectName());
+            }
+            catch (JMException exc) {
+                // not registered
+            }
+            serverSocket.close();
+        }
+    }
+
+    private boolean isIdle() {
+        return activeRequests.get() == 0
+                && System.currentTimeMillis() - lastActivity > config.getDaemonIdleTimeout();
+    }
+
+    @Override
+    public void beginRequest() {
+        activeRequests.incrementAndGet();
+        lastActivity = System.currentTimeMillis();
+    }
+
+    @Override
+    public void endRequest() {
+        lastActivity = System.currentTimeMillis();
+        activeRequests.decrementAndGet();
+    }
+
+    @Override
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            String command = reader.readLine();
+            String response;
+            try {
+                response = execute(command);
+            }
+            catch (RuntimeException exc) {
+                log.log(Level.SEVERE, "command failed: " + command, exc);
+                response = ERROR + " " + exc.toString().replace('\n', ' ');
+            }
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            writer.write(response);
+            writer.write('\n');
+            writer.flush();
+        }
+        catch (IOException exc) {
+            log.log(Level.WARNING, "cannot process command", exc);
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException exc) {
+                // ignore
+            }
+        }
+    }
+
+    private String execute(String line) {
+        if (line == null) {
+            return ERROR + " no command";
+        }
+        int blank = line.indexOf(' ');
+        String command = (blank < 0) ? line : line.substring(0, blank);
+        String argument = (blank < 0) ? null : line.substring(blank + 1);
+        if (PING.equals(command)) {
+            return OK + " " + fingerprint + " " + workingDir;
+        }
+        if (ATTACH.equals(command)) {
+            URI contextRoot = launcher.update();
+            return (contextRoot == null) ? OK : OK + " " + contextRoot;
+        }
+        if (METADATA.equals(command) && argument != null) {
+            launcher.addMetadata(new File(argument));
+            return OK;
+        }
+        if (SHUTDOWN.equals(command)) {
+            log.info("shutdown requested");
+            running = false;
+            return OK;
+        }
+        return ERROR + " unknown command " + line;
+    }
+}
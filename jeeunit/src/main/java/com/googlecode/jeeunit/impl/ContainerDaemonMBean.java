@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+/**
+ * Management interface of the {@link ContainerDaemon}, used by the test runner servlet to
+ * report running tests, so that the daemon does not terminate while tests are running.
+ * 
+ * @author hwellmann
+ * 
+ */
+public interface ContainerDaemonMBean {
+
+    /**
+     * Reports the start of a test request.
+     */
+    void beginRequest();
+
+    /**
+     * Reports the end of a test request.
+     */
+    void endRequest();
+
+    /**
+     * Returns the number of test requests currently running.
+     * 
+     * @return number of requests
+     */
+    int getActiveRequests();
+}
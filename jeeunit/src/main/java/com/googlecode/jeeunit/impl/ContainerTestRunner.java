@@ -31,9 +31,12 @@ import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
 
+import com.googlecode.jeeunit.PhaseTimings.Phase;
 import com.googlecode.jeeunit.Transactional;
 import com.googlecode.jeeunit.spi.Injector;
+import com.googlecode.jeeunit.spi.ReleasingInjector;
 
 public class ContainerTestRunner extends BlockJUnit4ClassRunner {
     private Injector injector;
@@ -49,12 +52,59 @@ public class ContainerTestRunner extends BlockJUnit4ClassRunner {
     @Override
     protected Object createTest() throws Exception {
         Object test = super.createTest();
+        long start = System.nanoTime();
         injector.injectFields(test);
+        PhaseRecorder.record(Phase.INJECTION, start);
         return test;
     }
 
+    @Override
+    protected Statement methodInvoker(FrameworkMethod method, Object test) {
+        final Statement next = super.methodInvoker(method, test);
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                long start = System.nanoTime();
+                try {
+                    next.evaluate();
+                }
+                finally {
+                    PhaseRecorder.record(Phase.METHOD, start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Releases the test instance after the {@code @After} methods have run, if the injector
+     * is a {@link ReleasingInjector}.
+     */
+    @Override
+    protected Statement withAfters(FrameworkMethod method, final Object target,
+            Statement statement) {
+        final Statement next = super.withAfters(method, target, statement);
+        if (!(injector instanceof ReleasingInjector)) {
+            return next;
+        }
+        final ReleasingInjector releasingInjector = (ReleasingInjector) injector;
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    next.evaluate();
+                }
+                finally {
+                    releasingInjector.release(target);
+                }
+            }
+        };
+    }
+
     @Override
     protected void runChild(FrameworkMethod method, RunNotifier notifier) {
+        PhaseRecorder.start();
         boolean transactional = isTransactional(method);
         if (transactional) {
             runInTransaction(method, notifier);
@@ -74,9 +124,11 @@ public class ContainerTestRunner extends BlockJUnit4ClassRunner {
 
         eachNotifier.fireTestStarted();
         try {
+            long start = System.nanoTime();
             InitialContext ctx = new InitialContext();
             tx = (UserTransaction) ctx.lookup("java:comp/UserTransaction");
             tx.begin();
+            PhaseRecorder.record(Phase.TRANSACTION_BEGIN, start);
             methodBlock(method).evaluate();
         }
         catch (NamingException exc) {
@@ -102,6 +154,7 @@ public class ContainerTestRunner extends BlockJUnit4ClassRunner {
 
     private void rollback(UserTransaction tx, EachTestNotifier eachNotifier) {
         if (tx != null) {
+            long start = System.nanoTime();
             try {
                 tx.rollback();
             }
@@ -114,6 +167,9 @@ public class ContainerTestRunner extends BlockJUnit4ClassRunner {
             catch (SystemException exc) {
                 eachNotifier.addFailure(exc);
             }
+            finally {
+                PhaseRecorder.record(Phase.ROLLBACK, start);
+            }
         }
     }
 
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+
+import com.googlecode.jeeunit.spi.Injector;
+
+/**
+ * Caches test runners for a deployment, so that repeated requests for the same test class do
+ * not repeat the reflective scanning and validation of the class.
+ * <p>
+ * Runners are keyed by class and the set of requested methods, since filtering modifies the
+ * runner. A filtered runner does not change after construction and may be run by multiple
+ * requests concurrently.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ContainerTestRunnerCache {
+
+    private Injector injector;
+    private ConcurrentMap<String, Runner> runners = new ConcurrentHashMap<String, Runner>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache with runners using the given injector.
+     * 
+     * @param injector
+     *            injector shared by all runners
+     */
+    public ContainerTestRunnerCache(Injector injector) {
+        this.injector = injector;
+    }
+
+    /**
+     * Returns a runner for the given methods of the given class.
+     * 
+     * @param clazz
+     *            test class
+     * @param methodNames
+     *            method names, or null for all methods
+     * @return runner
+     */
+    public Runner getRunner(Class<?> clazz, String[] methodNames) {
+        String key = getKey(clazz, methodNames);
+        Runner runner = runners.get(key);
+        if (runner != null) {
+            hits.incrementAndGet();
+            return runner;
+        }
+        misses.incrementAndGet();
+        runner = createRunner(clazz, methodNames);
+        Runner existing = runners.putIfAbsent(key, runner);
+        return (existing == null) ? runner : existing;
+    }
+
+    private Runner createRunner(Class<?> clazz, String[] methodNames) {
+        Request request = new ContainerTestRunnerClassRequest(clazz, injector);
+        if (methodNames != null) {
+            request = request.filterWith(new MethodNameFilter(methodNames));
+        }
+        return request.getRunner();
+    }
+
+    private String getKey(Class<?> clazz, String[] methodNames) {
+        if (methodNames == null) {
+            return clazz.getName();
+        }
+        String[] sortedNames = methodNames.clone();
+        Arrays.sort(sortedNames);
+        StringBuilder key = new StringBuilder(clazz.getName());
+        for (String methodName : sortedNames) {
+            key.append('#');
+            key.append(methodName);
+        }
+        return key.toString();
+    }
+
+    public Injector getInjector() {
+        return injector;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return runners.size();
+    }
+
+    public void clear() {
+        runners.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("runners=%d hits=%d misses=%d", size(), getHits(), getMisses());
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import static com.googlecode.jeeunit.impl.ContainerDaemon.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.googlecode.jeeunit.spi.ContainerLauncher;
+
+/**
+ * Attaches to a container kept warm by a {@link ContainerDaemon} instead of launching an
+ * embedded container in the current JVM.
+ * <p>
+ * The launcher looks for a daemon with a matching classpath fingerprint on
+ * {@code jeeunit.daemon.port} and the following ports. If there is none, a daemon process is
+ * started with the classpath, working directory, {@code jeeunit.*} system properties and
+ * {@code -X} options of the current JVM, on the first free port. A stale daemon started from
+ * the same working directory is shut down and replaced. Daemons of other working directories
+ * are left alone, since they may belong to a concurrent build. Changed classes in the
+ * classpath directories are redeployed by the daemon on each {@link #autodeploy()}.
+ * <p>
+ * Tests are run over HTTP, since the container lives in a different JVM.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class DaemonContainerLauncher implements ContainerLauncher {
+
+    private static final int POLL_INTERVAL = 200;
+    private static final int PORT_RANGE = 10;
+    private static final String LOGGING_CONFIG = "java.util.logging.config.file";
+
+    private static Logger log = Logger.getLogger(DaemonContainerLauncher.class.getName());
+
+    private Configuration config;
+    private String classpath;
+    private String workingDir;
+    private String fingerprint;
+    private int port;
+    private URI contextRoot;
+
+    public DaemonContainerLauncher(Configuration config) {
+        this.config = config;
+        // Surefire runs the tests from a manifest-only JAR by default
+        this.classpath = System.getProperty("surefire.test.class.path",
+                System.getProperty("java.class.path"));
+        this.workingDir = System.getProperty("user.dir");
+        this.fingerprint = getClasspathFingerprint(classpath, workingDir);
+        this.port = config.getDaemonPort();
+    }
+
+    /**
+     * Makes sure a healthy daemon with a matching classpath is running, starting a new daemon
+     * if required.
+     */
+    @Override
+    public synchronized void launch() {
+        if (isRunning()) {
+            return;
+        }
+        port = selectPort();
+        Process process = startDaemon();
+        waitForDaemon(process);
+    }
+
+    /**
+     * Checks if a healthy daemon with a matching classpath is running on any port of the
+     * daemon port range, and switches to its port.
+     * 
+     * @return true if the daemon can be used
+     */
+    public boolean isRunning() {
+        for (int i = 0; i < PORT_RANGE; i++) {
+            int candidate = config.getDaemonPort() + i;
+            String[] info = ping(candidate);
+            if (info != null && fingerprint.equals(info[0])) {
+                port = candidate;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the port for a new daemon. A stale daemon of the current working directory is
+     * shut down and its port reused. Otherwise, the first free port is used.
+     * 
+     * @return daemon port
+     */
+    private int selectPort() {
+        int freePort = -1;
+        for (int i = 0; i < PORT_RANGE; i++) {
+            int candidate = config.getDaemonPort() + i;
+            if (!isListening(candidate)) {
+                if (freePort < 0) {
+                    freePort = candidate;
+                }
+                continue;
+            }
+            String[] info = ping(candidate);
+            if (info != null && workingDir.equals(info[1])) {
+                port = candidate;
+                shutdownDaemon();
+                return candidate;
+            }
+        }
+        if (freePort < 0) {
+            throw new IllegalStateException("no free jeeunit daemon port in range "
+                    + config.getDaemonPort() + "-" + (config.getDaemonPort() + PORT_RANGE - 1));
+        }
+        return freePort;
+    }
+
+    /**
+     * Returns the fingerprint of the classpath, working directory and configuration. Only a
+     * daemon with the same fingerprint is used.
+     * 
+     * @return fingerprint
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Leaves the daemon running for subsequent test runs. The daemon terminates on its own
+     * after {@code jeeunit.daemon.idleTimeout} milliseconds.
+     */
+    @Override
+    public void shutdown() {
+        // keep the daemon warm
+    }
+
+    @Override
+    public synchronized URI autodeploy() {
+        try {
+            String result = send(ATTACH, config.getDaemonStartTimeout());
+            contextRoot = (result == null) ? null : URI.create(result);
+            return contextRoot;
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    @Override
+    public URI update() {
+        return autodeploy();
+    }
+
+    /**
+     * Ignores the filter with a warning, since a filter is code and cannot be passed to the
+     * daemon. The daemon uses the default filter of the embedded container, which can be
+     * configured by the {@code jeeunit.*} properties forwarded to the daemon.
+     */
+    @Override
+    public void setClasspathFilter(FileFilter filter) {
+        log.warning("classpath filter " + filter + " ignored, the jeeunit daemon uses the "
+                + "default filter of the embedded container");
+    }
+
+    @Override
+    public void addMetadata(File file) {
+        try {
+            send(METADATA + " " + file.getAbsolutePath(), config.getDaemonStartTimeout());
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    @Override
+    public URI getContextRootUri() {
+        return contextRoot;
+    }
+
+    /**
+     * Checks the health of the daemon on the given port.
+     * 
+     * @param daemonPort
+     *            daemon port
+     * @return the fingerprint and the working directory of the daemon, or null if no daemon
+     *         responds
+     */
+    private String[] ping(int daemonPort) {
+        try {
+            String result = send(daemonPort, PING, config.getDaemonStartTimeout());
+            if (result == null || result.indexOf(' ') < 0) {
+                return null;
+            }
+            return result.split(" ", 2);
+        }
+        catch (IOException exc) {
+            return null;
+        }
+    }
+
+    private boolean isListening(int daemonPort) {
+        try {
+            new Socket(InetAddress.getByName(null), daemonPort).close();
+            return true;
+        }
+        catch (IOException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Shuts down the daemon and waits for it to release its port.
+     */
+    public void shutdownDaemon() {
+        try {
+            send(SHUTDOWN, config.getDaemonStartTimeout());
+        }
+        catch (IOException exc) {
+            // daemon may have terminated in the meantime
+        }
+        long deadline = System.currentTimeMillis() + config.getDaemonStartTimeout();
+        while (isListening(port)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("jeeunit daemon on port " + port
+                        + " does not shut down");
+            }
+            sleep();
+        }
+    }
+
+    private Process startDaemon() {
+        File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+        List<String> command = new ArrayList<String>();
+        command.add(java.getPath());
+        command.addAll(getJvmOptions());
+        command.add("-D" + Constants.KEY_DAEMON_PORT + "=" + port);
+        command.add("-cp");
+        command.add(classpath);
+        command.add(ContainerDaemon.class.getName());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(new File(workingDir));
+        builder.redirectErrorStream(true);
+        try {
+            Process process = builder.start();
+            process.getOutputStream().close();
+            return process;
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    /**
+     * Returns the options of the current JVM to be passed to the daemon: memory and other
+     * {@code -X} options, except debugging options which would clash with the current JVM,
+     * all {@code jeeunit.*} system properties except the daemon port, and the logging
+     * configuration file.
+     * 
+     * @return JVM options
+     */
+    private static List<String> getJvmOptions() {
+        List<String> options = new ArrayList<String>();
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-X") && !arg.equals("-Xdebug") && !arg.startsWith("-Xrunjdwp")) {
+                options.add(arg);
+            }
+        }
+        for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+            String key = entry.getKey().toString();
+            if ((key.startsWith("jeeunit.") && !key.equals(Constants.KEY_DAEMON_PORT))
+                    || key.equals(LOGGING_CONFIG)) {
+                options.add("-D" + key + "=" + entry.getValue());
+            }
+        }
+        return options;
+    }
+
+    private void waitForDaemon(Process process) {
+        File logFile = getLogFile(port);
+        long deadline = System.currentTimeMillis() + config.getDaemonStartTimeout();
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                if (isListening(port)) {
+                    String[] info = ping(port);
+                    if (info != null && fingerprint.equals(info[0])) {
+                        return;
+                    }
+                    if (info != null) {
+                        throw new IllegalStateException("another jeeunit daemon with a different "
+                                + "classpath is running on port " + port);
+                    }
+                }
+                else if (hasTerminated(process)) {
+                    throw new IllegalStateException("jeeunit daemon terminated, see " + logFile);
+                }
+                sleep();
+            }
+            throw new IllegalStateException("jeeunit daemon did not start within "
+                    + config.getDaemonStartTimeout() + " ms, see " + logFile);
+        }
+        finally {
+            try {
+                process.getInputStream().close();
+            }
+            catch (IOException exc) {
+                // ignore
+            }
+        }
+    }
+
+    private static boolean hasTerminated(Process process) {
+        try {
+            process.exitValue();
+            return true;
+        }
+        catch (IllegalThreadStateException exc) {
+            return false;
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(POLL_INTERVAL);
+        }
+        catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exc);
+        }
+    }
+
+    private String send(String command, int readTimeout) throws IOException {
+        return send(port, command, readTimeout);
+    }
+
+    /**
+     * Sends a command to the daemon on the given port and returns the result of a successful
+     * response.
+     * 
+     * @param daemonPort
+     *            daemon port
+     * @param command
+     *            command line
+     * @param readTimeout
+     *            timeout for the response in milliseconds
+     * @return result, or null if the response has no result
+     * @throws IOException
+     *             if the daemon is not reachable or reports an error
+     */
+    private String send(int daemonPort, String command, int readTimeout) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), daemonPort);
+        try {
+            socket.setSoTimeout(readTimeout);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            writer.write(command);
+            writer.write('\n');
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("no response from jeeunit daemon to " + command);
+            }
+            if (response.equals(OK)) {
+                return null;
+            }
+            if (response.startsWith(OK + " ")) {
+                return response.substring(OK.length() + 1);
+            }
+            throw new IOException("jeeunit daemon: " + response);
+        }
+        finally {
+            socket.close();
+        }
+    }
+}
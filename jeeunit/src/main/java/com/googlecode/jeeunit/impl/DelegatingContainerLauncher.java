@@ -41,6 +41,11 @@ abstract public class DelegatingContainerLauncher<T extends ContainerLauncher> i
         return getSingleton().autodeploy();
     }
 
+    @Override
+    public URI update() {
+        return getSingleton().update();
+    }
+
     @Override
     public void setClasspathFilter(FileFilter filter) {
         getSingleton().setClasspathFilter(filter);
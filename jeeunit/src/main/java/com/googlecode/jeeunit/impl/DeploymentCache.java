@@ -0,0 +1,425 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * A directory of ad hoc WARs built by container launchers, keyed by a
+ * {@link ClasspathFingerprint} of their contents. An unchanged classpath reuses the WAR built
+ * by a previous run.
+ * <p>
+ * Entries are written to a temporary file and then renamed, so concurrent test JVMs never see
+ * incomplete WARs. A container using a cached WAR as its document base holds a lease on the
+ * WAR, see {@link #leaseWar(File)}. The least recently used entries without lease are deleted
+ * when the cache is full.
+ * <p>
+ * The cache directory also holds a persistent exploded copy of each base WAR, which is updated
+ * incrementally when the base WAR changes. Each directory is protected by a lease file, which
+ * is locked in shared mode by every JVM reading the directory, and in exclusive mode while the
+ * directory is updated. The least recently used directories without lease are deleted when
+ * there are more exploded directories than cached WARs.
+ * <p>
+ * The cache is configured in {@code jeeunit.properties}:
+ * <ul>
+ * <li>{@code jeeunit.deploy.cache} enable the cache (default: true)</li>
+ * <li>{@code jeeunit.deploy.cache.dir} cache directory (default: {@code jeeunit-cache} in the
+ * temporary directory)</li>
+ * <li>{@code jeeunit.deploy.cache.size} maximum number of cached WARs (default: 3)</li>
+ * </ul>
+ * 
+ * @author hwellmann
+ * 
+ */
+public class DeploymentCache {
+
+    private static final String SUFFIX = ".war";
+    private static final String EXPLODED_PREFIX = "exploded-";
+    private static final String LEASE_SUFFIX = ".lease";
+
+    /** Minimum age of a lease file without directory before it is deleted. */
+    private static final long LEASE_MIN_AGE = 60 * 60 * 1000L;
+
+    private boolean enabled;
+    private File cacheDir;
+    private int maxEntries;
+
+    public DeploymentCache(Configuration config) {
+        this.enabled = config.isDeployCache();
+        this.cacheDir = new File(config.getDeployCacheDir());
+        this.maxEntries = config.getDeployCacheSize();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached WAR for the given key.
+     * 
+     * @param key
+     *            fingerprint
+     * @return WAR file, or null if there is no such entry or the cache is disabled
+     */
+    public File get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        File war = new File(cacheDir, key + SUFFIX);
+        if (!war.isFile()) {
+            return null;
+        }
+        war.setLastModified(System.currentTimeMillis());
+        return war;
+    }
+
+    /**
+     * Adds a WAR to the cache. The given file is moved to the cache if possible, or copied
+     * otherwise.
+     * 
+     * @param key
+     *            fingerprint
+     * @param war
+     *            WAR file
+     * @return cached WAR file, or the given file if the cache is disabled
+     * @throws IOException
+     */
+    public File put(String key, File war) throws IOException {
+        if (!enabled) {
+            return war;
+        }
+        cacheDir.mkdirs();
+        File cached = new File(cacheDir, key + SUFFIX);
+        File tempFile = new File(cacheDir, UUID.randomUUID().toString() + ".tmp");
+        if (!war.renameTo(tempFile)) {
+            copyFile(war, tempFile);
+        }
+        if (!tempFile.renameTo(cached)) {
+            // another JVM may have added the same entry in the meantime
+            tempFile.delete();
+            if (!cached.isFile()) {
+                throw new IOException("cannot add " + cached + " to deployment cache");
+            }
+        }
+        evict();
+        return cached;
+    }
+
+    /**
+     * Takes a shared lease on a cached WAR, blocking while the WAR is being evicted by
+     * another JVM. A WAR with lease is never evicted, so a container may use it as its
+     * document base. The lease is released by closing the returned channel, or when the JVM
+     * terminates.
+     * 
+     * @param war
+     *            WAR returned by {@link #get(String)} or {@link #put(String, File)}
+     * @return channel holding the lease, or null if the cache is disabled
+     * @throws IOException
+     *             if the WAR has been evicted by another JVM before taking the lease
+     */
+    public FileChannel leaseWar(File war) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        FileChannel channel = lease(new File(war.getPath() + LEASE_SUFFIX));
+        if (!war.isFile()) {
+            channel.close();
+            throw new IOException(war + " has been evicted from deployment cache");
+        }
+        return channel;
+    }
+
+    /**
+     * Explodes the given base WAR to a persistent directory and takes a shared lease on the
+     * directory. The directory is reused by later runs with the same base WAR and filter. It
+     * is updated in place by an incremental {@link ZipExploder} when no other JVM holds a
+     * lease on it. Otherwise, if the base WAR has changed, it is exploded to a separate
+     * directory for this version of the base WAR, so a running container never sees files
+     * change underneath it.
+     * <p>
+     * The lease is released by closing the channel returned by {@link ExplodedDir#getLease()},
+     * or when the JVM terminates.
+     * 
+     * @param warBase
+     *            base WAR
+     * @param exploder
+     *            exploder with the filter for the entries of the base WAR
+     * @return leased directory, or null if the cache is disabled or no directory could be
+     *         leased
+     * @throws IOException
+     */
+    public ExplodedDir explode(File warBase, ZipExploder exploder) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        String name = warBase.getName().replaceFirst("\\.war$", "");
+        String salt = "exploded:" + exploder.getFilter();
+        String key = new ClasspathFingerprint(salt + ":" + warBase.getAbsolutePath()).getKey();
+        File dir = new File(cacheDir, EXPLODED_PREFIX + name + "-" + key);
+        FileChannel lease = explode(warBase, dir, exploder);
+        if (lease == null) {
+            // the directory is in use with another version of the base WAR
+            key = new ClasspathFingerprint(salt).add(warBase).getKey();
+            dir = new File(cacheDir, EXPLODED_PREFIX + name + "-" + key);
+            lease = explode(warBase, dir, exploder);
+        }
+        evictExploded();
+        return (lease == null) ? null : new ExplodedDir(dir, lease);
+    }
+
+    /**
+     * Updates the given directory if it is not leased by any other JVM and takes a shared
+     * lease on it.
+     * 
+     * @return channel holding the lease, or null if the directory is leased and differs from
+     *         the base WAR
+     */
+    private FileChannel explode(File warBase, File dir, ZipExploder exploder)
+            throws IOException {
+        cacheDir.mkdirs();
+        File leaseFile = new File(dir.getPath() + LEASE_SUFFIX);
+        FileChannel channel = new RandomAccessFile(leaseFile, "rw").getChannel();
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                dir.mkdirs();
+                exploder.setIncremental(true);
+                exploder.processFile(warBase.getAbsolutePath(), dir.getAbsolutePath());
+                lock.release();
+            }
+            channel.lock(0L, Long.MAX_VALUE, true);
+            // another JVM may have updated the directory before we got the shared lock
+            if (!exploder.isUpToDate(warBase.getAbsolutePath(), dir.getAbsolutePath())) {
+                channel.close();
+                return null;
+            }
+            leaseFile.setLastModified(System.currentTimeMillis());
+            return channel;
+        }
+        catch (OverlappingFileLockException exc) {
+            // leased by this JVM
+            channel.close();
+            return null;
+        }
+        catch (IOException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    private FileChannel lease(File leaseFile) throws IOException {
+        cacheDir.mkdirs();
+        FileChannel channel = new RandomAccessFile(leaseFile, "rw").getChannel();
+        try {
+            channel.lock(0L, Long.MAX_VALUE, true);
+        }
+        catch (IOException exc) {
+            channel.close();
+            throw exc;
+        }
+        leaseFile.setLastModified(System.currentTimeMillis());
+        return channel;
+    }
+
+    private void evictExploded() {
+        File[] entries = cacheDir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        int numLeases = 0;
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (name.startsWith(EXPLODED_PREFIX) && name.endsWith(LEASE_SUFFIX)) {
+                entries[numLeases++] = entry;
+            }
+        }
+        if (numLeases <= maxEntries) {
+            return;
+        }
+        File[] leaseFiles = Arrays.copyOf(entries, numLeases);
+        Arrays.sort(leaseFiles, new Comparator<File>() {
+
+            @Override
+            public int compare(File left, File right) {
+                long diff = right.lastModified() - left.lastModified();
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        for (int i = maxEntries; i < leaseFiles.length; i++) {
+            evictExploded(leaseFiles[i]);
+        }
+    }
+
+    /**
+     * Deletes an exploded directory and the files of its incremental exploder, unless the
+     * directory is leased.
+     */
+    private void evictExploded(File leaseFile) {
+        File dir = getLeasedFile(leaseFile);
+        if (dir.exists()) {
+            deleteUnlessLeased(leaseFile, dir, new File(dir.getPath() + ".manifest"),
+                    new File(dir.getPath() + ".lock"));
+        }
+        else {
+            deleteStaleLease(leaseFile);
+        }
+    }
+
+    private static File getLeasedFile(File leaseFile) {
+        String path = leaseFile.getPath();
+        return new File(path.substring(0, path.length() - LEASE_SUFFIX.length()));
+    }
+
+    /**
+     * Deletes the given files if no JVM holds a lease on them. The lease file is kept, since
+     * another JVM may be waiting for a lock on it.
+     */
+    private static void deleteUnlessLeased(File leaseFile, File... files) {
+        try {
+            FileChannel channel = new RandomAccessFile(leaseFile, "rw").getChannel();
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    for (File file : files) {
+                        delete(file);
+                    }
+                    lock.release();
+                }
+            }
+            finally {
+                channel.close();
+            }
+        }
+        catch (OverlappingFileLockException exc) {
+            // leased by this JVM
+        }
+        catch (IOException exc) {
+            // leased by another JVM
+        }
+    }
+
+    /**
+     * Deletes a lease file whose leased file no longer exists, when it has not been used for a
+     * long time.
+     */
+    private static void deleteStaleLease(File leaseFile) {
+        if (System.currentTimeMillis() - leaseFile.lastModified() > LEASE_MIN_AGE) {
+            leaseFile.delete();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void evict() {
+        File[] entries = cacheDir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        int numWars = 0;
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (name.endsWith(SUFFIX)) {
+                entries[numWars++] = entry;
+            }
+            else if (name.endsWith(SUFFIX + LEASE_SUFFIX) && !getLeasedFile(entry).exists()) {
+                deleteStaleLease(entry);
+            }
+        }
+        if (numWars <= maxEntries) {
+            return;
+        }
+        File[] wars = Arrays.copyOf(entries, numWars);
+        Arrays.sort(wars, new Comparator<File>() {
+
+            @Override
+            public int compare(File left, File right) {
+                long diff = right.lastModified() - left.lastModified();
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        for (int i = maxEntries; i < wars.length; i++) {
+            deleteUnlessLeased(new File(wars[i].getPath() + LEASE_SUFFIX), wars[i]);
+        }
+    }
+
+    /**
+     * A persistent exploded base WAR with a shared lease.
+     */
+    public static class ExplodedDir {
+
+        private File dir;
+        private FileChannel lease;
+
+        ExplodedDir(File dir, FileChannel lease) {
+            this.dir = dir;
+            this.lease = lease;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        /**
+         * @return channel holding the lease, to be closed when the directory is no longer
+         *         used
+         */
+        public FileChannel getLease() {
+            return lease;
+        }
+    }
+
+    static void copyFile(File source, File target) throws IOException {
+        InputStream is = new FileInputStream(source);
+        try {
+            OutputStream os = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, n);
+                }
+            }
+            finally {
+                os.close();
+            }
+        }
+        finally {
+            is.close();
+        }
+    }
+}
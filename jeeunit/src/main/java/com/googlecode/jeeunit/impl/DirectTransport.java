@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runs tests in an embedded container in the same JVM via the {@link TestRunnerBridge} of the
+ * deployed web application, bypassing HTTP.
+ * <p>
+ * The events are piped from a worker thread running the tests to the caller, so they can be
+ * reported while the test class is still running.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class DirectTransport {
+
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private static DirectTransport instance;
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jeeunit-direct-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private DirectTransport() {
+    }
+
+    public static synchronized DirectTransport getInstance() {
+        if (instance == null) {
+            instance = new DirectTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Checks if a bridge is registered for the web application with the given context root.
+     * 
+     * @param contextRoot
+     *            context root URI
+     * @return true if tests can be run directly
+     */
+    public boolean isAvailable(URI contextRoot) {
+        return server.isRegistered(getObjectName(contextRoot));
+    }
+
+    private ObjectName getObjectName(URI contextRoot) {
+        String path = contextRoot.getPath();
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return TestRunnerBridge.getObjectName(path);
+    }
+
+    /**
+     * Runs the given methods of a test class in the web application with the given context
+     * root.
+     * 
+     * @param contextRoot
+     *            context root URI
+     * @param className
+     *            test class name
+     * @param methodNames
+     *            method names, or null to run all methods
+     * @param javaSerialization
+     *            include the Java serialized form of exceptions, if possible
+     * @return stream of test events
+     * @throws IOException
+     */
+    public InputStream run(URI contextRoot, final String className, List<String> methodNames,
+            final boolean javaSerialization) throws IOException {
+        final ObjectName name = getObjectName(contextRoot);
+        final String[] methods = (methodNames == null) ? null : methodNames
+                .toArray(new String[methodNames.size()]);
+        final PipedOutputStream os = new PipedOutputStream();
+        final FailureAwareInputStream is = new FailureAwareInputStream(new PipedInputStream(os,
+                PIPE_SIZE));
+
+        executorService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    server.invoke(name, "run", new Object[] { className, methods,
+                            javaSerialization, os }, new String[] { String.class.getName(),
+                            String[].class.getName(), boolean.class.getName(),
+                            OutputStream.class.getName() });
+                }
+                catch (MBeanException exc) {
+                    is.setFailure(exc.getTargetException());
+                }
+                catch (Exception exc) {
+                    is.setFailure(exc);
+                }
+                finally {
+                    try {
+                        os.close();
+                    }
+                    catch (IOException exc) {
+                        // reader has gone away
+                    }
+                }
+            }
+        });
+        return is;
+    }
+
+    /**
+     * Reports a failure of the worker thread to the reader at the end of the stream.
+     */
+    private static class FailureAwareInputStream extends FilterInputStream {
+
+        private volatile Throwable failure;
+
+        FailureAwareInputStream(InputStream is) {
+            super(is);
+        }
+
+        void setFailure(Throwable failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                checkFailure();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                checkFailure();
+            }
+            return n;
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                IOException exc = new IOException("direct test run failed");
+                exc.initCause(failure);
+                throw exc;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Coordinates test JVMs sharing a container via a state file protected by a file lock. The
+ * lock is held on a separate file next to the state file, so that the state file can be
+ * replaced while locked.
+ * <p>
+ * Each JVM using the shared container holds a lease, which is a locked file in a directory
+ * next to the state file. The operating system releases the lock when the JVM terminates,
+ * even when it is killed, so the number of live leases is recounted from the lock state
+ * instead of being stored in the state file.
+ * <p>
+ * File locks are held on behalf of the whole JVM. Threads of the same JVM are serialized by
+ * this class, so there should be only one coordinator per state file and JVM.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ForkCoordinator {
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private File stateFile;
+    private File lockFile;
+    private File leaseDir;
+    private FileChannel channel;
+    private FileLock lock;
+    private File leaseFile;
+    private FileChannel leaseChannel;
+
+    public ForkCoordinator(File stateFile) {
+        this.stateFile = stateFile;
+        this.lockFile = new File(stateFile.getPath() + ".lock");
+        this.leaseDir = new File(stateFile.getPath() + ".leases");
+    }
+
+    /**
+     * Blocks until this JVM holds the lock.
+     * 
+     * @throws IOException
+     */
+    public synchronized void lock() throws IOException {
+        while (lock != null) {
+            try {
+                wait();
+            }
+            catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for " + lockFile);
+            }
+        }
+        channel = new RandomAccessFile(lockFile, "rw").getChannel();
+        try {
+            lock = channel.lock();
+        }
+        finally {
+            if (lock == null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Releases the lock.
+     * 
+     * @throws IOException
+     */
+    public synchronized void unlock() throws IOException {
+        try {
+            lock.release();
+        }
+        finally {
+            lock = null;
+            channel.close();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads the shared state. The caller must hold the lock.
+     * 
+     * @return state, empty if there is no state file
+     * @throws IOException
+     */
+    public Properties getState() throws IOException {
+        Properties state = new Properties();
+        if (stateFile.exists()) {
+            InputStream is = new FileInputStream(stateFile);
+            try {
+                state.load(is);
+            }
+            finally {
+                is.close();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Writes the shared state, or deletes the state file if the state is empty. The caller
+     * must hold the lock.
+     * 
+     * @param state
+     *            shared state
+     * @throws IOException
+     */
+    public void setState(Properties state) throws IOException {
+        if (state.isEmpty()) {
+            stateFile.delete();
+            return;
+        }
+        OutputStream os = new FileOutputStream(stateFile);
+        try {
+            state.store(os, "jeeunit shared container");
+        }
+        finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Acquires a lease for this JVM, unless it already holds one. The caller must hold the
+     * lock, so that other JVMs do not count the lease before it is locked.
+     * 
+     * @throws IOException
+     */
+    public synchronized void acquireLease() throws IOException {
+        if (leaseChannel != null) {
+            return;
+        }
+        leaseDir.mkdirs();
+        File file = new File(leaseDir, UUID.randomUUID().toString() + LEASE_SUFFIX);
+        FileChannel leaseLockChannel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            leaseLockChannel.lock();
+        }
+        catch (IOException exc) {
+            leaseLockChannel.close();
+            file.delete();
+            throw exc;
+        }
+        leaseFile = file;
+        leaseChannel = leaseLockChannel;
+    }
+
+    /**
+     * Releases the lease of this JVM, if any.
+     * 
+     * @throws IOException
+     */
+    public synchronized void releaseLease() throws IOException {
+        if (leaseChannel == null) {
+            return;
+        }
+        try {
+            leaseChannel.close();
+        }
+        finally {
+            leaseFile.delete();
+            leaseChannel = null;
+            leaseFile = null;
+        }
+    }
+
+    /**
+     * Counts the leases held by live JVMs, including this one, and deletes the leases of
+     * terminated JVMs. The caller must hold the lock.
+     * 
+     * @return number of live leases
+     */
+    public int countLeases() {
+        File[] files = leaseDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int numLeases = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(LEASE_SUFFIX)) {
+                continue;
+            }
+            if (isLeased(file)) {
+                numLeases++;
+            }
+            else {
+                file.delete();
+            }
+        }
+        return numLeases;
+    }
+
+    private boolean isLeased(File file) {
+        try {
+            FileChannel leaseLockChannel = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                FileLock leaseLock = leaseLockChannel.tryLock();
+                if (leaseLock == null) {
+                    return true;
+                }
+                leaseLock.release();
+                return false;
+            }
+            finally {
+                leaseLockChannel.close();
+            }
+        }
+        catch (OverlappingFileLockException exc) {
+            // held by this JVM
+            return true;
+        }
+        catch (IOException exc) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import com.googlecode.jeeunit.PhaseTimings;
+import com.googlecode.jeeunit.PhaseTimings.Phase;
+
+/**
+ * Records the phase timings of the test currently running on this thread.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PhaseRecorder {
+
+    private static ThreadLocal<PhaseTimings> current = new ThreadLocal<PhaseTimings>();
+
+    private PhaseRecorder() {
+    }
+
+    /**
+     * Starts recording a new test on the current thread.
+     */
+    public static void start() {
+        current.set(new PhaseTimings());
+    }
+
+    /**
+     * Adds the time elapsed since the given start time to a phase of the current test.
+     * Does nothing if no test is being recorded.
+     * 
+     * @param phase
+     *            test phase
+     * @param startNanos
+     *            start time from {@link System#nanoTime()}
+     */
+    public static void record(Phase phase, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        PhaseTimings timings = current.get();
+        if (timings != null) {
+            timings.addNanos(phase, duration);
+        }
+    }
+
+    /**
+     * Stops recording on the current thread.
+     * 
+     * @return timings of the current test, or null
+     */
+    public static PhaseTimings finish() {
+        PhaseTimings timings = current.get();
+        current.remove();
+        return timings;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Random;
+
+/**
+ * Finds free TCP ports for containers which cannot bind to port 0 and report the bound port,
+ * so that several test JVMs on the same host can each run a container.
+ * <p>
+ * A port found by this class is free at the time of the call. Another process may bind it
+ * before the container does, so containers binding port 0 themselves should be preferred.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PortAllocator {
+
+    private static Random random = new Random();
+
+    private PortAllocator() {
+    }
+
+    /**
+     * Replaces an HTTP port of 0 in the given configuration by a free port.
+     * 
+     * @param config
+     *            jeeunit configuration
+     * @return the configured or allocated HTTP port
+     */
+    public static synchronized int resolveHttpPort(Configuration config) {
+        if (config.getHttpPort() == 0) {
+            config.setHttpPort(findFreePort());
+        }
+        return config.getHttpPort();
+    }
+
+    /**
+     * Returns a port chosen by the operating system which is currently free.
+     * 
+     * @return port number
+     */
+    public static int findFreePort() {
+        try {
+            ServerSocket socket = new ServerSocket(0);
+            try {
+                return socket.getLocalPort();
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (IOException exc) {
+            throw new RuntimeException("cannot find a free port", exc);
+        }
+    }
+
+    /**
+     * Checks if the given port can be bound on all interfaces.
+     * 
+     * @param port
+     *            port number
+     * @return true if the port is free
+     */
+    public static boolean isFree(int port) {
+        try {
+            ServerSocket socket = new ServerSocket();
+            try {
+                socket.bind(new InetSocketAddress(port));
+                return true;
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (IOException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds a multiple of {@code step} which can be added to all given base ports to obtain free
+     * ports. The search starts at a random multiple, so that concurrent callers are unlikely to
+     * pick the same offset.
+     * 
+     * @param basePorts
+     *            base port numbers
+     * @param step
+     *            offset increment
+     * @param maxOffset
+     *            maximum offset, inclusive
+     * @return port offset
+     * @throws IllegalStateException
+     *             if there is no such offset
+     */
+    public static int findFreeOffset(int[] basePorts, int step, int maxOffset) {
+        int numOffsets = maxOffset / step;
+        int first;
+        synchronized (random) {
+            first = random.nextInt(numOffsets);
+        }
+        for (int i = 0; i < numOffsets; i++) {
+            int offset = ((first + i) % numOffsets + 1) * step;
+            if (isFreeOffset(basePorts, offset)) {
+                return offset;
+            }
+        }
+        throw new IllegalStateException("no free port offset up to " + maxOffset);
+    }
+
+    private static boolean isFreeOffset(int[] basePorts, int offset) {
+        for (int port : basePorts) {
+            if (port + offset > 65535 || !isFree(port + offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+
+/**
+ * Singleton owning the HTTP client used by all {@code JeeunitRunner} instances in this JVM.
+ * <p>
+ * The client is created once and keeps its connections in a bounded pool of persistent
+ * connections, with at most {@code jeeunit.http.maxConnections} connections to the test
+ * container. A connection is returned to the pool when the response stream returned by
+ * {@link #get(WebResource)} is closed, after reading any remaining content.
+ * <p>
+ * The connection statistics are taken from the pool and included in the timing report, see
+ * {@link TimingReportWriter}.
+ *
+ * @author hwellmann
+ *
+ */
+public class RemoteTransport {
+
+    private static RemoteTransport instance;
+
+    private Client client;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private AtomicLong clientsCreated = new AtomicLong();
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong connectionsOpened = new AtomicLong();
+    private AtomicLong connectionsReused = new AtomicLong();
+
+    private RemoteTransport(Configuration config) {
+        connectionManager = new CountingConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(config.getHttpMaxConnections());
+        params.setMaxTotalConnections(config.getHttpMaxConnections());
+        params.setConnectionTimeout(config.getHttpConnectTimeout());
+        params.setSoTimeout(config.getHttpReadTimeout());
+        client = new ApacheHttpClient(new ApacheHttpClientHandler(new HttpClient(
+                connectionManager)));
+        clientsCreated.incrementAndGet();
+    }
+
+    public static synchronized RemoteTransport getInstance() {
+        if (instance == null) {
+            instance = new RemoteTransport(new ConfigurationLoader().load());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the instance without creating it.
+     * 
+     * @return instance, or null if there have been no remote tests in this JVM
+     */
+    public static synchronized RemoteTransport getExistingInstance() {
+        return instance;
+    }
+
+    public WebResource resource(URI uri) {
+        return client.resource(uri);
+    }
+
+    /**
+     * Sends a GET request to the given resource and returns the response body. The caller
+     * must close the stream to release the connection.
+     *
+     * @param resource
+     *            web resource
+     * @return response stream
+     */
+    public InputStream get(WebResource resource) {
+        requests.incrementAndGet();
+        return resource.get(InputStream.class);
+    }
+
+    public long getClientsCreated() {
+        return clientsCreated.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of connections taken from the pool which had to be opened
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * @return number of connections taken from the pool which were still open from a previous
+     *         request
+     */
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    /**
+     * @return number of connections currently held by the pool, idle or in use
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("clients=%d requests=%d opened=%d reused=%d pooled=%d",
+                getClientsCreated(), getRequests(), getConnectionsOpened(),
+                getConnectionsReused(), getConnectionsInPool());
+    }
+
+    /**
+     * Counts the connections handed out by the pool. A pooled connection which is still open
+     * is reused, any other connection is opened by the HTTP client before sending the request.
+     */
+    private class CountingConnectionManager extends MultiThreadedHttpConnectionManager {
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration,
+                long timeout) throws ConnectionPoolTimeoutException {
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration,
+                    timeout);
+            if (connection.isOpen()) {
+                connectionsReused.incrementAndGet();
+            }
+            else {
+                connectionsOpened.incrementAndGet();
+            }
+            return connection;
+        }
+    }
+}
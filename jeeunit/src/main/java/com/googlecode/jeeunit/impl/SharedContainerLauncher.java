@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.URI;
+
+import com.googlecode.jeeunit.spi.ContainerLauncher;
+
+/**
+ * Shares one container between all test JVMs forked by a build on the same host.
+ * <p>
+ * The first JVM starts a {@link ContainerDaemon}, which launches the container and deploys
+ * the application. Later JVMs find the running daemon with the same fingerprint and attach to
+ * it, taking the context root from the daemon. Each JVM holds a lease while attached, releases
+ * it on exit, and the last one shuts down the daemon. The leases are managed by a
+ * {@link ForkCoordinator} whose files are keyed by the daemon fingerprint, so builds of other
+ * projects on the same host never share or count leases of this daemon.
+ * <p>
+ * Leases of JVMs which are killed or time out are dropped by the operating system. If the
+ * last JVM is killed, the daemon terminates after its idle timeout, unless another JVM
+ * attaches to it in the meantime.
+ * <p>
+ * The container runs in a separate process and not in the first JVM, since the first JVM may
+ * finish its tests before the others.
+ * <p>
+ * There is only one instance per JVM, since file locks are held per JVM.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class SharedContainerLauncher implements ContainerLauncher {
+
+    private static SharedContainerLauncher instance;
+
+    private DaemonContainerLauncher daemon;
+    private ForkCoordinator coordinator;
+    private URI contextRoot;
+    private boolean attached;
+
+    private SharedContainerLauncher(Configuration config) {
+        this.daemon = new DaemonContainerLauncher(config);
+        this.coordinator = new ForkCoordinator(getStateFile(daemon.getFingerprint()));
+    }
+
+    public static synchronized SharedContainerLauncher getInstance(Configuration config) {
+        if (instance == null) {
+            instance = new SharedContainerLauncher(config);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the state file of the container shared via the daemon with the given
+     * fingerprint. The leases are kept next to the state file.
+     * 
+     * @param fingerprint
+     *            daemon fingerprint, see {@link ContainerDaemon#getClasspathFingerprint}
+     * @return state file
+     */
+    public static File getStateFile(String fingerprint) {
+        return new File(System.getProperty("java.io.tmpdir"), "jeeunit-shared-" + fingerprint
+                + ".properties");
+    }
+
+    /**
+     * Does nothing. The shared container is launched or reused by {@link #autodeploy()}.
+     */
+    @Override
+    public void launch() {
+        // deferred to autodeploy()
+    }
+
+    /**
+     * Detaches from the shared container, shutting it down if no other JVM uses it.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (!attached) {
+            return;
+        }
+        attached = false;
+        try {
+            coordinator.lock();
+            try {
+                coordinator.releaseLease();
+                if (coordinator.countLeases() == 0) {
+                    daemon.shutdownDaemon();
+                }
+            }
+            finally {
+                coordinator.unlock();
+            }
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    /**
+     * Attaches to the shared container, launching it if there is no healthy container.
+     */
+    @Override
+    public synchronized URI autodeploy() {
+        if (!attached) {
+            try {
+                attach();
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+            attached = true;
+            addShutdownHook();
+        }
+        return contextRoot;
+    }
+
+    private void attach() throws IOException {
+        coordinator.lock();
+        try {
+            // reuses a running daemon with the same fingerprint
+            daemon.launch();
+            contextRoot = daemon.autodeploy();
+            coordinator.acquireLease();
+        }
+        finally {
+            coordinator.unlock();
+        }
+    }
+
+    private void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    /**
+     * Returns the shared context root without redeploying, since other JVMs may be running
+     * tests against the current deployment.
+     */
+    @Override
+    public URI update() {
+        return autodeploy();
+    }
+
+    /**
+     * Ignored with a warning, see {@link DaemonContainerLauncher#setClasspathFilter(FileFilter)}.
+     */
+    @Override
+    public void setClasspathFilter(FileFilter filter) {
+        daemon.setClasspathFilter(filter);
+    }
+
+    @Override
+    public void addMetadata(File file) {
+        daemon.addMetadata(file);
+    }
+
+    @Override
+    public URI getContextRootUri() {
+        return contextRoot;
+    }
+}
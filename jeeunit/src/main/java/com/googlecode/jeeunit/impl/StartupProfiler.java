@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Records timed startup phases of the test JVM, from JVM start to the first test runner
+ * request, and appends them to a CSV report, so that startup regressions can be tracked over
+ * time and containers can be compared on the same workload.
+ * <p>
+ * Each line of the report has the columns {@code run,launcher,phase,thread,start,duration}.
+ * The run is identified by its start time. Start offsets are relative to JVM start, all times
+ * are in milliseconds. Phases may overlap when they run on different threads.
+ * <p>
+ * Phases recorded after the report has been written are ignored.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class StartupProfiler {
+
+    private static StartupProfiler instance;
+
+    private long originNanos;
+    private Date runStart;
+    private List<Phase> phases = new ArrayList<Phase>();
+    private boolean finished;
+
+    private StartupProfiler() {
+        long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        originNanos = System.nanoTime() - uptimeMillis * 1000000;
+        runStart = new Date(ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    public static synchronized StartupProfiler getInstance() {
+        if (instance == null) {
+            instance = new StartupProfiler();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the start time of a phase, to be passed to {@link #record(String, long)}.
+     * 
+     * @return nano time
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a phase ending now.
+     * 
+     * @param name
+     *            phase name
+     * @param startNanos
+     *            start time returned by {@link #start()}
+     */
+    public synchronized void record(String name, long startNanos) {
+        if (!finished) {
+            phases.add(new Phase(name, Thread.currentThread().getName(), startNanos,
+                    System.nanoTime()));
+        }
+    }
+
+    /**
+     * Records a derived phase of the given duration ending now, such as the part of a
+     * background task which overlapped with other work.
+     * 
+     * @param name
+     *            phase name
+     * @param durationNanos
+     *            duration in nanoseconds
+     */
+    public synchronized void recordDuration(String name, long durationNanos) {
+        record(name, System.nanoTime() - durationNanos);
+    }
+
+    /**
+     * Returns the phases recorded so far.
+     * 
+     * @return list of phases in order of completion
+     */
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<Phase>(phases);
+    }
+
+    /**
+     * Stops recording, adds a {@code total} phase from JVM start and appends all phases to
+     * the given report file. Only the first call has any effect.
+     * 
+     * @param reportFile
+     *            report file name, or null for no report
+     * @param launcher
+     *            name of the container launcher
+     */
+    public synchronized void finish(String reportFile, String launcher) {
+        if (finished) {
+            return;
+        }
+        record("total", originNanos);
+        finished = true;
+        if (reportFile != null) {
+            try {
+                write(new File(reportFile), launcher);
+            }
+            catch (IOException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+    }
+
+    private void write(File file, String launcher) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        boolean isNew = !file.exists() || file.length() == 0;
+        PrintWriter writer = new PrintWriter(new FileWriter(file, true));
+        try {
+            if (isNew) {
+                writer.println("run,launcher,phase,thread,start,duration");
+            }
+            String run = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(runStart);
+            for (Phase phase : phases) {
+                writer.print(run);
+                writer.print(',');
+                writer.print(launcher);
+                writer.print(',');
+                writer.print(phase.getName());
+                writer.print(',');
+                writer.print(phase.getThread().replace(',', '_'));
+                writer.print(',');
+                writer.print((phase.startNanos - originNanos) / 1000000);
+                writer.print(',');
+                writer.println(phase.getDurationNanos() / 1000000);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * A recorded startup phase.
+     */
+    public static class Phase {
+
+        private String name;
+        private String thread;
+        private long startNanos;
+        private long endNanos;
+
+        Phase(String name, String thread, long startNanos, long endNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public long getDurationNanos() {
+            return endNanos - startNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%s] %d ms", name, thread, getDurationNanos() / 1000000);
+        }
+    }
+}
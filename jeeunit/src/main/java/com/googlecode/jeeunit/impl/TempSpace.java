@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Manages the temporary directories of the embedded containers below a single root directory
+ * ({@code jeeunit.temp.dir}).
+ * <p>
+ * Each directory contains an owner file with the process ID and creation time and a lease
+ * file, which is locked by the owning JVM as long as the directory is in use. The operating
+ * system releases the lock when the JVM terminates, even when it is killed.
+ * <p>
+ * Released directories are renamed and deleted on a background thread, so that JVM exit is
+ * not delayed by recursive deletes. When a directory is released by a shutdown hook, the JVM
+ * usually exits before the deletion is complete. Such leftover directories are deleted by the
+ * next call of {@link #createTempDir(String)} in any JVM. Directories whose lease is not held
+ * by any JVM are swept by a background thread when the temp space is first used.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TempSpace {
+
+    /** Minimum age of a directory without lease file before it is swept. */
+    private static final long UNLEASED_MIN_AGE = 60 * 60 * 1000L;
+
+    /** Minimum age of an unlocked lease file before its directory is swept. */
+    private static final long LEASE_MIN_AGE = 10 * 1000L;
+
+    private static final String OWNER_FILE = ".jeeunit-owner";
+    private static final String LEASE_FILE = ".jeeunit-lease";
+    private static final String TRASH_PREFIX = ".trash-";
+
+    private static TempSpace instance;
+
+    private File root;
+    private Map<File, FileChannel> leases = new HashMap<File, FileChannel>();
+
+    /**
+     * Creates a temp space with the given root. Use {@link #getInstance()} to obtain the
+     * temp space configured by {@code jeeunit.temp.dir}.
+     * 
+     * @param root
+     *            root directory
+     */
+    public TempSpace(File root) {
+        this.root = root;
+        root.mkdirs();
+    }
+
+    public static synchronized TempSpace getInstance() {
+        if (instance == null) {
+            instance = new TempSpace(new File(new ConfigurationLoader().load().getTempDir()));
+            instance.startBackground("jeeunit-temp-sweeper", new Runnable() {
+
+                @Override
+                public void run() {
+                    instance.sweep();
+                }
+            });
+        }
+        return instance;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates a new temporary directory leased by this JVM.
+     * 
+     * @param prefix
+     *            name prefix, e.g. the container name
+     * @return new empty directory, except for the owner and lease files
+     */
+    public synchronized File createTempDir(String prefix) {
+        deleteTrash();
+        File dir = new File(root, prefix + "-" + UUID.randomUUID().toString());
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + dir);
+        }
+        try {
+            FileChannel channel = new RandomAccessFile(new File(dir, LEASE_FILE), "rw")
+                .getChannel();
+            channel.lock();
+            leases.put(dir, channel);
+
+            Writer writer = new FileWriter(new File(dir, OWNER_FILE));
+            try {
+                writer.write("pid=" + ManagementFactory.getRuntimeMXBean().getName() + "\n");
+                writer.write("created=" + System.currentTimeMillis() + "\n");
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+        return dir;
+    }
+
+    /**
+     * Releases the lease on a directory created by this temp space and deletes the directory
+     * asynchronously. The directory is renamed first, so it is gone immediately from the
+     * caller's point of view.
+     * 
+     * @param dir
+     *            temporary directory
+     */
+    public synchronized void release(File dir) {
+        FileChannel channel = leases.remove(dir);
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException exc) {
+            // ignore
+        }
+        final File trash = new File(root, TRASH_PREFIX + dir.getName());
+        final File doomed = dir.renameTo(trash) ? trash : dir;
+        startBackground("jeeunit-temp-delete", new Runnable() {
+
+            @Override
+            public void run() {
+                delete(doomed);
+            }
+        });
+    }
+
+    /**
+     * Deletes released directories left over by JVMs which exited before the background
+     * deletion was complete.
+     */
+    private void deleteTrash() {
+        File[] children = root.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() && child.getName().startsWith(TRASH_PREFIX)) {
+                delete(child);
+            }
+        }
+    }
+
+    /**
+     * Deletes all directories below the root which are not leased by any JVM.
+     * 
+     * @return number of deleted directories
+     */
+    public int sweep() {
+        File[] children = root.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        int numDeleted = 0;
+        for (File child : children) {
+            if (isOrphan(child)) {
+                delete(child);
+                numDeleted++;
+            }
+        }
+        return numDeleted;
+    }
+
+    private boolean isOrphan(File dir) {
+        if (!dir.isDirectory()) {
+            return false;
+        }
+        if (dir.getName().startsWith(TRASH_PREFIX)) {
+            return true;
+        }
+        synchronized (this) {
+            if (leases.containsKey(dir)) {
+                return false;
+            }
+        }
+        File leaseFile = new File(dir, LEASE_FILE);
+        if (!leaseFile.exists()) {
+            // may be under construction by another JVM
+            return System.currentTimeMillis() - dir.lastModified() > UNLEASED_MIN_AGE;
+        }
+        if (System.currentTimeMillis() - leaseFile.lastModified() < LEASE_MIN_AGE) {
+            // may not be locked yet
+            return false;
+        }
+        try {
+            FileChannel channel = new RandomAccessFile(leaseFile, "rw").getChannel();
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    return false;
+                }
+                lock.release();
+                return true;
+            }
+            finally {
+                channel.close();
+            }
+        }
+        catch (OverlappingFileLockException exc) {
+            return false;
+        }
+        catch (IOException exc) {
+            return false;
+        }
+    }
+
+    private void startBackground(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import com.googlecode.jeeunit.PhaseTimings;
+
+/**
+ * An event of a test run in the container, streamed from the test runner servlet to the test
+ * driver. Events with a {@code null} method name refer to the test class, e.g. a failure of a
+ * {@code @BeforeClass} method.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TestEvent {
+
+    public enum Type {
+        STARTED, FINISHED, FAILED, ASSUMPTION_FAILED, IGNORED, RUN_FINISHED
+    }
+
+    private Type type;
+    private String methodName;
+    private Throwable exception;
+    private long timestamp;
+    private long elapsedNanos;
+    private PhaseTimings phaseTimings;
+
+    public TestEvent(Type type, String methodName) {
+        this(type, methodName, System.currentTimeMillis());
+    }
+
+    public TestEvent(Type type, String methodName, long timestamp) {
+        this.type = type;
+        this.methodName = methodName;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Throwable getException() {
+        return exception;
+    }
+
+    public void setException(Throwable exception) {
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the server time of this event in milliseconds.
+     * 
+     * @return timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the server-side duration of the test method for {@code FINISHED} events.
+     * 
+     * @return duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the server-side phase timings for {@code FINISHED} events.
+     * 
+     * @return phase timings, or null
+     */
+    public PhaseTimings getPhaseTimings() {
+        return phaseTimings;
+    }
+
+    public void setPhaseTimings(PhaseTimings phaseTimings) {
+        this.phaseTimings = phaseTimings;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + methodName;
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.internal.AssumptionViolatedException;
+
+import com.googlecode.jeeunit.PhaseTimings;
+import com.googlecode.jeeunit.PhaseTimings.Phase;
+import com.googlecode.jeeunit.impl.TestEvent.Type;
+
+/**
+ * Binary encoding of test events exchanged between the test runner servlet and the test driver.
+ * <p>
+ * A stream starts with a header consisting of a magic number and a protocol version, followed
+ * by a sequence of length-prefixed event frames. Exceptions are encoded structurally (class
+ * name, message, stack frames and cause), so the driver can report exceptions even if they are
+ * not serializable or their classes are not on the driver classpath. Java serialization of
+ * exceptions is only used when requested explicitly, in addition to the structural encoding.
+ * <p>
+ * Optional fields are appended to the end of a frame. Readers skip trailing data they do not
+ * know and treat missing optional fields as absent.
+ *
+ * @author hwellmann
+ *
+ */
+public class TestEventCodec {
+
+    public static final int MAGIC = 0x4A45554E;
+    public static final int VERSION = 1;
+
+    private static final String CHARSET = "UTF-8";
+    private static final int MAX_CAUSE_DEPTH = 16;
+
+    private static final byte[] TYPE_CODES = { 'S', 'F', 'X', 'A', 'I', 'E' };
+
+    private TestEventCodec() {
+    }
+
+    public static void writeHeader(DataOutputStream os) throws IOException {
+        os.writeInt(MAGIC);
+        os.writeByte(VERSION);
+    }
+
+    public static void readHeader(DataInputStream is) throws IOException {
+        if (is.readInt() != MAGIC) {
+            throw new IOException("not a jeeunit test event stream");
+        }
+        int version = is.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("unsupported protocol version " + version);
+        }
+    }
+
+    /**
+     * Encodes an event as a length-prefixed frame.
+     *
+     * @param os
+     *            output stream
+     * @param event
+     *            test event
+     * @param javaSerialization
+     *            also write the Java serialized form of the exception, if possible
+     * @throws IOException
+     */
+    public static void writeEvent(DataOutputStream os, TestEvent event, boolean javaSerialization)
+            throws IOException {
+        FrameWriter frame = new FrameWriter();
+        frame.writeByte(TYPE_CODES[event.getType().ordinal()]);
+        frame.writeString(event.getMethodName());
+        frame.writeLong(event.getTimestamp());
+        frame.writeLong(event.getElapsedNanos());
+        writeThrowable(frame, event.getException(), javaSerialization, 0);
+        writePhaseTimings(frame, event.getPhaseTimings());
+
+        os.writeInt(frame.size());
+        frame.writeTo(os);
+    }
+
+    /**
+     * Decodes the next event frame.
+     *
+     * @param is
+     *            input stream
+     * @return test event
+     * @throws IOException
+     */
+    public static TestEvent readEvent(DataInputStream is) throws IOException {
+        byte[] bytes = new byte[is.readInt()];
+        is.readFully(bytes);
+        FrameReader frame = new FrameReader(bytes);
+        Type type = toType(frame.readByte());
+        TestEvent event = new TestEvent(type, frame.readString(), frame.readLong());
+        event.setElapsedNanos(frame.readLong());
+        event.setException(readThrowable(frame));
+        if (frame.available()) {
+            event.setPhaseTimings(readPhaseTimings(frame));
+        }
+        return event;
+    }
+
+    private static void writePhaseTimings(FrameWriter frame, PhaseTimings timings)
+            throws IOException {
+        if (timings == null) {
+            frame.writeInt(0);
+            return;
+        }
+        Phase[] phases = Phase.values();
+        frame.writeInt(phases.length);
+        for (Phase phase : phases) {
+            frame.writeLong(timings.getNanos(phase));
+        }
+    }
+
+    private static PhaseTimings readPhaseTimings(FrameReader frame) throws IOException {
+        int numPhases = frame.readInt();
+        if (numPhases == 0) {
+            return null;
+        }
+        PhaseTimings timings = new PhaseTimings();
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < numPhases; i++) {
+            long nanos = frame.readLong();
+            // ignore phases added by newer versions
+            if (i < phases.length) {
+                timings.addNanos(phases[i], nanos);
+            }
+        }
+        return timings;
+    }
+
+    private static Type toType(byte code) throws IOException {
+        for (int i = 0; i < TYPE_CODES.length; i++) {
+            if (TYPE_CODES[i] == code) {
+                return Type.values()[i];
+            }
+        }
+        throw new IOException("unknown event type " + code);
+    }
+
+    private static void writeThrowable(FrameWriter frame, Throwable throwable,
+            boolean javaSerialization, int depth) throws IOException {
+        if (throwable == null || depth > MAX_CAUSE_DEPTH) {
+            frame.writeByte(0);
+            return;
+        }
+        frame.writeByte(1);
+        frame.writeString(getClassName(throwable));
+        frame.writeString(throwable.getMessage());
+
+        StackTraceElement[] elements = throwable.getStackTrace();
+        frame.writeInt(elements.length);
+        for (StackTraceElement element : elements) {
+            frame.writeString(element.getClassName());
+            frame.writeString(element.getMethodName());
+            frame.writeString(element.getFileName());
+            frame.writeInt(element.getLineNumber() + 2);
+        }
+
+        byte[] serialized = null;
+        if (javaSerialization && depth == 0) {
+            serialized = serialize(throwable);
+        }
+        frame.writeBytes(serialized);
+
+        Throwable cause = throwable.getCause();
+        writeThrowable(frame, (cause == throwable) ? null : cause, javaSerialization, depth + 1);
+    }
+
+    private static Throwable readThrowable(FrameReader frame) throws IOException {
+        if (frame.readByte() == 0) {
+            return null;
+        }
+        String className = frame.readString();
+        String message = frame.readString();
+
+        StackTraceElement[] elements = new StackTraceElement[frame.readInt()];
+        for (int i = 0; i < elements.length; i++) {
+            String declaringClass = frame.readString();
+            String methodName = frame.readString();
+            String fileName = frame.readString();
+            int lineNumber = frame.readInt() - 2;
+            elements[i] = new StackTraceElement(declaringClass, methodName, fileName, lineNumber);
+        }
+        byte[] serialized = frame.readBytes();
+        Throwable cause = readThrowable(frame);
+
+        Throwable throwable = deserialize(serialized);
+        if (throwable == null) {
+            throwable = createThrowable(className, message);
+            throwable.setStackTrace(elements);
+            if (cause != null && throwable.getCause() == null) {
+                try {
+                    throwable.initCause(cause);
+                }
+                catch (IllegalStateException exc) {
+                    // cause cannot be set for this exception
+                }
+            }
+        }
+        return throwable;
+    }
+
+    private static String getClassName(Throwable throwable) {
+        if (throwable instanceof RemoteThrowable) {
+            return ((RemoteThrowable) throwable).getRemoteClassName();
+        }
+        return throwable.getClass().getName();
+    }
+
+    /**
+     * Creates an exception of the given class, if this class is available on the local
+     * classpath and has a constructor taking a message. Otherwise, creates an exception of a
+     * substitute class which has the same message and is also an {@link AssertionError} or
+     * {@link AssumptionViolatedException} if the original is.
+     */
+    private static Throwable createThrowable(String className, String message) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = TestEventCodec.class.getClassLoader();
+        }
+        Class<?> klass = null;
+        try {
+            klass = Class.forName(className, false, loader);
+        }
+        catch (ClassNotFoundException exc) {
+            return new RemoteException(className, message);
+        }
+
+        if (AssumptionViolatedException.class.isAssignableFrom(klass)) {
+            return new RemoteAssumptionViolatedException(className, message);
+        }
+        if (klass == AssertionError.class) {
+            return (message == null) ? new AssertionError() : new AssertionError(message);
+        }
+        if (Throwable.class.isAssignableFrom(klass)) {
+            try {
+                Constructor<?> ctor = klass.getConstructor(String.class);
+                return (Throwable) ctor.newInstance(message);
+            }
+            catch (Exception exc) {
+                // fall through
+            }
+        }
+        if (AssertionError.class.isAssignableFrom(klass)) {
+            return new RemoteAssertionError(className, message);
+        }
+        return new RemoteException(className, message);
+    }
+
+    private static byte[] serialize(Throwable throwable) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(throwable);
+            oos.close();
+            return baos.toByteArray();
+        }
+        catch (IOException exc) {
+            // not serializable, the structural encoding will have to do
+            return null;
+        }
+    }
+
+    private static Throwable deserialize(byte[] serialized) {
+        if (serialized == null) {
+            return null;
+        }
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized));
+            return (Throwable) ois.readObject();
+        }
+        catch (IOException exc) {
+            return null;
+        }
+        catch (ClassNotFoundException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the contents of a single frame. Non-negative integers are written as variable
+     * length quantities. Each distinct string is written only once per frame and replaced by a
+     * back reference on subsequent occurrences, which keeps stack traces compact.
+     */
+    private static class FrameWriter {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        private DataOutputStream os = new DataOutputStream(bytes);
+        private Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        void writeByte(int b) throws IOException {
+            os.writeByte(b);
+        }
+
+        void writeLong(long l) throws IOException {
+            os.writeLong(l);
+        }
+
+        void writeInt(int n) throws IOException {
+            while ((n & ~0x7F) != 0) {
+                os.writeByte((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            os.writeByte(n);
+        }
+
+        /** 0 = null, 1 = new string, n + 2 = reference to string number n */
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeInt(0);
+                return;
+            }
+            Integer ref = strings.get(s);
+            if (ref != null) {
+                writeInt(ref + 2);
+                return;
+            }
+            strings.put(s, strings.size());
+            writeInt(1);
+            byte[] utf8 = s.getBytes(CHARSET);
+            writeInt(utf8.length);
+            os.write(utf8);
+        }
+
+        void writeBytes(byte[] b) throws IOException {
+            if (b == null) {
+                writeInt(0);
+            }
+            else {
+                writeInt(b.length + 1);
+                os.write(b);
+            }
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads the contents of a frame written by a {@link FrameWriter}.
+     */
+    private static class FrameReader {
+        private DataInputStream is;
+        private List<String> strings = new ArrayList<String>();
+
+        FrameReader(byte[] bytes) {
+            is = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        boolean available() throws IOException {
+            return is.available() > 0;
+        }
+
+        byte readByte() throws IOException {
+            return is.readByte();
+        }
+
+        long readLong() throws IOException {
+            return is.readLong();
+        }
+
+        int readInt() throws IOException {
+            int n = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = is.readUnsignedByte();
+                n |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            return n;
+        }
+
+        String readString() throws IOException {
+            int tag = readInt();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag > 1) {
+                return strings.get(tag - 2);
+            }
+            byte[] utf8 = new byte[readInt()];
+            is.readFully(utf8);
+            String s = new String(utf8, CHARSET);
+            strings.add(s);
+            return s;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] b = new byte[length - 1];
+            is.readFully(b);
+            return b;
+        }
+    }
+
+    /**
+     * An exception reconstructed from its remote representation.
+     */
+    public interface RemoteThrowable {
+        String getRemoteClassName();
+    }
+
+    /**
+     * Substitute for a remote exception of a class which cannot be instantiated locally.
+     */
+    public static class RemoteException extends RuntimeException implements RemoteThrowable {
+        private static final long serialVersionUID = 1L;
+        private String remoteClassName;
+
+        public RemoteException(String remoteClassName, String message) {
+            super(message);
+            this.remoteClassName = remoteClassName;
+        }
+
+        @Override
+        public String getRemoteClassName() {
+            return remoteClassName;
+        }
+
+        @Override
+        public String toString() {
+            String message = getLocalizedMessage();
+            return (message == null) ? remoteClassName : remoteClassName + ": " + message;
+        }
+    }
+
+    /**
+     * Substitute for a remote assertion error of a class which cannot be instantiated locally.
+     */
+    public static class RemoteAssertionError extends AssertionError implements RemoteThrowable {
+        private static final long serialVersionUID = 1L;
+        private String remoteClassName;
+        private String message;
+
+        public RemoteAssertionError(String remoteClassName, String message) {
+            this.remoteClassName = remoteClassName;
+            this.message = message;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String getRemoteClassName() {
+            return remoteClassName;
+        }
+
+        @Override
+        public String toString() {
+            return (message == null) ? remoteClassName : remoteClassName + ": " + message;
+        }
+    }
+
+    /**
+     * Substitute for a remote assumption failure, preserving the message of the original.
+     */
+    public static class RemoteAssumptionViolatedException extends AssumptionViolatedException
+            implements RemoteThrowable {
+        private static final long serialVersionUID = 1L;
+        private String remoteClassName;
+        private String message;
+
+        public RemoteAssumptionViolatedException(String remoteClassName, String message) {
+            super(message);
+            this.remoteClassName = remoteClassName;
+            this.message = message;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public void describeTo(org.hamcrest.Description description) {
+            description.appendText(message);
+        }
+
+        @Override
+        public String getRemoteClassName() {
+            return remoteClassName;
+        }
+    }
+}
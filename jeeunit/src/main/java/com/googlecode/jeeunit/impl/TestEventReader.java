@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.googlecode.jeeunit.impl.TestEvent.Type;
+
+/**
+ * Reads the test events written by a {@link TestEventWriter} one at a time, as they arrive.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TestEventReader {
+
+    private DataInputStream is;
+    private boolean started;
+    private boolean finished;
+
+    public TestEventReader(InputStream is) {
+        this.is = new DataInputStream(new BufferedInputStream(is));
+    }
+
+    /**
+     * Reads the next event, blocking until it is available.
+     * 
+     * @return next event, or null at the end of the test run
+     * @throws IOException
+     *             if the stream ends before the end of the test run
+     */
+    public TestEvent read() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            TestEventCodec.readHeader(is);
+            started = true;
+        }
+        TestEvent event = TestEventCodec.readEvent(is);
+        if (event.getType() == Type.RUN_FINISHED) {
+            finished = true;
+            return null;
+        }
+        return event;
+    }
+
+    public void close() throws IOException {
+        is.close();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import com.googlecode.jeeunit.impl.TestEvent.Type;
+
+/**
+ * Writes each test event to an output stream as soon as it occurs. The stream is flushed after
+ * each event, so the test driver can report results while the test class is still running.
+ * The events are encoded by {@link TestEventCodec}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TestEventWriter extends RunListener {
+
+    private DataOutputStream os;
+    private boolean javaSerialization;
+    private long startNanos;
+
+    /**
+     * Creates an event writer.
+     * 
+     * @param os
+     *            output stream
+     * @param javaSerialization
+     *            include the Java serialized form of exceptions, if possible
+     * @throws IOException
+     */
+    public TestEventWriter(OutputStream os, boolean javaSerialization) throws IOException {
+        this.os = new DataOutputStream(new BufferedOutputStream(os));
+        this.javaSerialization = javaSerialization;
+        TestEventCodec.writeHeader(this.os);
+        this.os.flush();
+    }
+
+    @Override
+    public void testStarted(Description description) throws IOException {
+        startNanos = System.nanoTime();
+        write(new TestEvent(Type.STARTED, description.getMethodName()));
+    }
+
+    @Override
+    public void testFinished(Description description) throws IOException {
+        TestEvent event = new TestEvent(Type.FINISHED, description.getMethodName());
+        event.setElapsedNanos(System.nanoTime() - startNanos);
+        event.setPhaseTimings(PhaseRecorder.finish());
+        write(event);
+    }
+
+    @Override
+    public void testFailure(Failure failure) throws IOException {
+        write(failure, Type.FAILED);
+    }
+
+    @Override
+    public void testAssumptionFailure(Failure failure) {
+        try {
+            write(failure, Type.ASSUMPTION_FAILED);
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    @Override
+    public void testIgnored(Description description) throws IOException {
+        write(new TestEvent(Type.IGNORED, description.getMethodName()));
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws IOException {
+        write(new TestEvent(Type.RUN_FINISHED, null));
+    }
+
+    private void write(Failure failure, Type type) throws IOException {
+        TestEvent event = new TestEvent(type, failure.getDescription().getMethodName());
+        event.setException(failure.getException());
+        write(event);
+    }
+
+    private synchronized void write(TestEvent event) throws IOException {
+        TestEventCodec.writeEvent(os, event, javaSerialization);
+        os.flush();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Makes the test runner servlet of a web application accessible to a test driver in the same
+ * JVM, without HTTP. The bridge is registered in the platform MBean server, which is shared by
+ * all class loaders.
+ * <p>
+ * The tests are run on the calling thread, with the context class loader set to the class
+ * loader of the web application. This is not a container thread, so the bridge is only
+ * registered for containers which do not need an invocation context for {@code java:comp}
+ * lookups, see {@link AbstractTestRunnerServlet#isBridgeSupported()}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TestRunnerBridge implements TestRunnerBridgeMBean {
+
+    private AbstractTestRunnerServlet servlet;
+    private ClassLoader classLoader;
+    private ObjectName objectName;
+
+    public TestRunnerBridge(AbstractTestRunnerServlet servlet, ClassLoader classLoader) {
+        this.servlet = servlet;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Returns the name of the bridge for the web application with the given context path.
+     * 
+     * @param contextPath
+     *            context path, e.g. {@code /jeeunit}
+     * @return object name
+     */
+    public static ObjectName getObjectName(String contextPath) {
+        try {
+            return new ObjectName("com.googlecode.jeeunit:type=TestRunner,context="
+                    + ObjectName.quote(contextPath));
+        }
+        catch (MalformedObjectNameException exc) {
+            throw new IllegalArgumentException(exc);
+        }
+    }
+
+    /**
+     * Registers this bridge, unless there is a bridge for the same context path.
+     * 
+     * @param contextPath
+     *            context path of the web application
+     * @return true if the bridge was registered
+     */
+    public boolean register(String contextPath) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName(contextPath);
+        try {
+            if (server.isRegistered(name)) {
+                return false;
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+            return true;
+        }
+        catch (JMException exc) {
+            return false;
+        }
+    }
+
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (JMException exc) {
+                // already unregistered
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public void run(String className, String[] methodNames, boolean javaSerialization,
+            OutputStream os) throws ClassNotFoundException, IOException {
+        Thread thread = Thread.currentThread();
+        ClassLoader oldClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            servlet.runTests(className, methodNames, javaSerialization, os);
+        }
+        finally {
+            thread.setContextClassLoader(oldClassLoader);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Management interface of the {@link TestRunnerBridge}. All parameter types are loaded by the
+ * bootstrap class loader, so the operation can be invoked across class loaders.
+ * 
+ * @author hwellmann
+ * 
+ */
+public interface TestRunnerBridgeMBean {
+
+    /**
+     * Runs the given methods of a test class and writes the test events to the given stream.
+     * 
+     * @param className
+     *            test class name
+     * @param methodNames
+     *            method names, or null to run all methods
+     * @param javaSerialization
+     *            include the Java serialized form of exceptions, if possible
+     * @param os
+     *            output stream for the events encoded by {@link TestEventCodec}
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    void run(String className, String[] methodNames, boolean javaSerialization, OutputStream os)
+            throws ClassNotFoundException, IOException;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.runner.Description;
+
+import com.googlecode.jeeunit.PhaseTimings;
+import com.googlecode.jeeunit.PhaseTimings.Phase;
+import com.googlecode.jeeunit.spi.TestTimingListener;
+
+/**
+ * Writes the phase timings of all remote tests to a CSV file, one line per test, with all
+ * durations in microseconds. The file is created on the first test and overwritten by each test
+ * run.
+ * <p>
+ * The last columns contain the cumulative HTTP statistics of the {@link RemoteTransport} after
+ * the request of the test: requests, connections opened and pooled connections reused. They
+ * are zero when tests run without HTTP.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TimingReportWriter implements TestTimingListener {
+
+    private File file;
+    private PrintWriter writer;
+
+    public TimingReportWriter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void testTimed(Description description, PhaseTimings timings) {
+        if (writer == null) {
+            open();
+        }
+        writer.print(description.getClassName());
+        writer.print(',');
+        writer.print(description.getMethodName());
+        for (Phase phase : Phase.values()) {
+            writer.print(',');
+            writer.print(timings.getNanos(phase) / 1000);
+        }
+        RemoteTransport transport = RemoteTransport.getExistingInstance();
+        writer.print(',');
+        writer.print((transport == null) ? 0 : transport.getRequests());
+        writer.print(',');
+        writer.print((transport == null) ? 0 : transport.getConnectionsOpened());
+        writer.print(',');
+        writer.print((transport == null) ? 0 : transport.getConnectionsReused());
+        writer.println();
+        writer.flush();
+    }
+
+    private void open() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        try {
+            writer = new PrintWriter(new FileWriter(file));
+        }
+        catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+        writer.print("class,method");
+        for (Phase phase : Phase.values()) {
+            writer.print(',');
+            writer.print(phase.name().toLowerCase());
+        }
+        writer.print(",http_requests,http_opened,http_reused");
+        writer.println();
+    }
+}
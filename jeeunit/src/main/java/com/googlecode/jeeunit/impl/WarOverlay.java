@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Merges a WAR built by a container launcher onto a base WAR, reading both archives by random
+ * access, so that the base WAR need not be exploded to the file system.
+ * <p>
+ * All entries of the base WAR are copied first. Entries of the overlay are added unless the
+ * base WAR contains an entry of the same name, which is the precedence of a
+ * {@code ScatteredArchive} with the exploded base WAR as root directory.
+ * <p>
+ * Entries are copied raw: the compressed data of each entry is transferred as it is, with
+ * method, CRC and sizes taken from the central directory of the source, so nothing is
+ * inflated or deflated again. Extra fields and comments are dropped. ZIP64 archives are not
+ * supported.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class WarOverlay {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+
+    /** General purpose flag for sizes and CRC in a data descriptor after the data. */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private File baseWar;
+    private ZipEntryFilter filter;
+
+    public WarOverlay(File baseWar) {
+        this.baseWar = baseWar;
+    }
+
+    /**
+     * Sets a filter for the entries of the base WAR. Entries of the overlay are not filtered.
+     * 
+     * @param filter
+     *            entry filter, or null to copy all entries
+     */
+    public void setFilter(ZipEntryFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Merges the given WAR onto the base WAR.
+     * 
+     * @param war
+     *            WAR built by a container launcher, deleted after merging
+     * @return merged WAR, a new temporary file
+     * @throws IOException
+     */
+    public File merge(File war) throws IOException {
+        long start = StartupProfiler.getInstance().start();
+        File merged = File.createTempFile("jeeunit-merged", ".war");
+        boolean complete = false;
+        MergedWar mergedWar = new MergedWar(merged);
+        try {
+            Set<String> names = new HashSet<String>();
+            mergedWar.copyEntries(baseWar, filter, names);
+            mergedWar.copyEntries(war, null, names);
+            mergedWar.finish();
+            complete = true;
+        }
+        finally {
+            mergedWar.close();
+            if (!complete) {
+                merged.delete();
+            }
+        }
+        war.delete();
+        StartupProfiler.getInstance().record("mergeWar", start);
+        return merged;
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+    }
+
+    private static long getInt(byte[] b, int off) {
+        return (getShort(b, off) | ((long) getShort(b, off + 2) << 16)) & 0xFFFFFFFFL;
+    }
+
+    private static void putShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte[] b, int off, long value) {
+        putShort(b, off, (int) value);
+        putShort(b, off + 2, (int) (value >> 16));
+    }
+
+    /**
+     * A ZIP archive written by copying raw entries from other archives.
+     */
+    private static class MergedWar {
+
+        private OutputStream os;
+        private long offset;
+        private ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        private int numEntries;
+
+        MergedWar(File file) throws IOException {
+            os = new BufferedOutputStream(new FileOutputStream(file), BufferPool.BUFFER_SIZE);
+        }
+
+        /**
+         * Copies the entries of the given archive accepted by the filter, unless an entry of
+         * the same name has already been copied.
+         */
+        void copyEntries(File source, ZipEntryFilter sourceFilter, Set<String> names)
+                throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(source, "r");
+            try {
+                byte[] cd = readCentralDirectory(raf, source);
+                int pos = 0;
+                while (pos < cd.length) {
+                    if (pos + CENTRAL_HEADER_SIZE > cd.length
+                            || getInt(cd, pos) != CENTRAL_HEADER) {
+                        throw new IOException("invalid central directory in " + source);
+                    }
+                    int nameLength = getShort(cd, pos + 28);
+                    int recordLength = CENTRAL_HEADER_SIZE + nameLength + getShort(cd, pos + 30)
+                            + getShort(cd, pos + 32);
+                    String name = new String(cd, pos + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+                    boolean accepted = sourceFilter == null || sourceFilter.accept(name);
+                    if (accepted && names.add(name)) {
+                        copyEntry(raf, source, cd, pos);
+                    }
+                    pos += recordLength;
+                }
+            }
+            finally {
+                raf.close();
+            }
+        }
+
+        private byte[] readCentralDirectory(RandomAccessFile raf, File source)
+                throws IOException {
+            long length = raf.length();
+            int tailLength = (int) Math.min(length, END_HEADER_SIZE + 0xFFFF);
+            byte[] tail = new byte[tailLength];
+            raf.seek(length - tailLength);
+            raf.readFully(tail);
+            for (int end = tailLength - END_HEADER_SIZE; end >= 0; end--) {
+                if (getInt(tail, end) == END_HEADER) {
+                    int count = getShort(tail, end + 10);
+                    long size = getInt(tail, end + 12);
+                    long cdOffset = getInt(tail, end + 16);
+                    if (count == 0xFFFF || cdOffset == 0xFFFFFFFFL) {
+                        throw new IOException("ZIP64 archive " + source + " is not supported");
+                    }
+                    byte[] cd = new byte[(int) size];
+                    raf.seek(cdOffset);
+                    raf.readFully(cd);
+                    return cd;
+                }
+            }
+            throw new IOException("no central directory in " + source);
+        }
+
+        /**
+         * Copies the local header and the compressed data of the entry whose central
+         * directory record starts at the given position, and adds a central directory record
+         * for it.
+         */
+        private void copyEntry(RandomAccessFile raf, File source, byte[] cd, int pos)
+                throws IOException {
+            long compressedSize = getInt(cd, pos + 20);
+            long sourceOffset = getInt(cd, pos + 42);
+            if (compressedSize == 0xFFFFFFFFL || getInt(cd, pos + 24) == 0xFFFFFFFFL
+                    || sourceOffset == 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 archive " + source + " is not supported");
+            }
+            if (numEntries == 0xFFFF || offset > 0xFFFFFFFFL) {
+                throw new IOException("merged WAR is too large for a ZIP archive without ZIP64");
+            }
+            int nameLength = getShort(cd, pos + 28);
+            int flags = getShort(cd, pos + 8) & ~FLAG_DATA_DESCRIPTOR;
+
+            byte[] sourceHeader = new byte[LOCAL_HEADER_SIZE];
+            raf.seek(sourceOffset);
+            raf.readFully(sourceHeader);
+            if (getInt(sourceHeader, 0) != LOCAL_HEADER) {
+                throw new IOException("invalid local header in " + source);
+            }
+            raf.seek(sourceOffset + LOCAL_HEADER_SIZE + getShort(sourceHeader, 26)
+                    + getShort(sourceHeader, 28));
+
+            // sizes and CRC from the central directory, even if the source has a data
+            // descriptor
+            byte[] header = new byte[LOCAL_HEADER_SIZE];
+            putInt(header, 0, LOCAL_HEADER);
+            System.arraycopy(cd, pos + 6, header, 4, 2);
+            putShort(header, 6, flags);
+            System.arraycopy(cd, pos + 10, header, 8, 20);
+            putShort(header, 28, 0);
+
+            byte[] record = new byte[CENTRAL_HEADER_SIZE];
+            System.arraycopy(cd, pos, record, 0, CENTRAL_HEADER_SIZE);
+            putShort(record, 8, flags);
+            putShort(record, 30, 0);
+            putShort(record, 32, 0);
+            putShort(record, 34, 0);
+            putInt(record, 42, offset);
+            centralDirectory.write(record);
+            centralDirectory.write(cd, pos + CENTRAL_HEADER_SIZE, nameLength);
+            numEntries++;
+
+            write(header, 0, header.length);
+            write(cd, pos + CENTRAL_HEADER_SIZE, nameLength);
+            BufferPool pool = BufferPool.getInstance();
+            byte[] buffer = pool.acquire();
+            try {
+                long remaining = compressedSize;
+                while (remaining > 0) {
+                    int count = (int) Math.min(buffer.length, remaining);
+                    raf.readFully(buffer, 0, count);
+                    write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+            finally {
+                pool.release(buffer);
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            os.write(b, off, len);
+            offset += len;
+        }
+
+        /**
+         * Writes the central directory.
+         */
+        void finish() throws IOException {
+            if (offset > 0xFFFFFFFFL) {
+                throw new IOException("merged WAR is too large for a ZIP archive without ZIP64");
+            }
+            long cdOffset = offset;
+            byte[] cd = centralDirectory.toByteArray();
+            write(cd, 0, cd.length);
+
+            byte[] end = new byte[END_HEADER_SIZE];
+            putInt(end, 0, END_HEADER);
+            putShort(end, 8, numEntries);
+            putShort(end, 10, numEntries);
+            putInt(end, 12, cd.length);
+            putInt(end, 16, cdOffset);
+            write(end, 0, end.length);
+        }
+
+        void close() throws IOException {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects entries of an archive by include and exclude rules on their names. An entry is
+ * accepted if it matches at least one include rule, or if there are no include rules, and if
+ * it matches no exclude rule.
+ * <p>
+ * Rules are given as comma separated lists. A rule is a glob pattern, unless it has the
+ * prefix {@code regex:}, in which case it is a regular expression matching the entire entry
+ * name. In glob patterns, {@code *} matches any characters except {@code /}, {@code **}
+ * matches any characters including {@code /} and {@code ?} matches a single character except
+ * {@code /}. A glob pattern ending with {@code /} matches the directory entry and all
+ * entries below it.
+ * <p>
+ * Example: {@code WEB-INF/lib/**, regex:.*\.psd} excludes all libraries and Photoshop images.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ZipEntryFilter {
+
+    private static final String REGEX_PREFIX = "regex:";
+
+    private List<Pattern> includes;
+    private List<Pattern> excludes;
+
+    /**
+     * Creates a filter.
+     * 
+     * @param includes
+     *            comma separated include rules, or null
+     * @param excludes
+     *            comma separated exclude rules, or null
+     */
+    public ZipEntryFilter(String includes, String excludes) {
+        this.includes = parseRules(includes);
+        this.excludes = parseRules(excludes);
+    }
+
+    /**
+     * Does this filter accept all entries?
+     * 
+     * @return true if there are no rules
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    public boolean accept(String name) {
+        if (!includes.isEmpty() && !matches(includes, name)) {
+            return false;
+        }
+        return !matches(excludes, name);
+    }
+
+    private boolean matches(List<Pattern> patterns, String name) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> parseRules(String rules) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        if (rules != null) {
+            for (String rule : rules.split(",")) {
+                rule = rule.trim();
+                if (rule.startsWith(REGEX_PREFIX)) {
+                    patterns.add(Pattern.compile(rule.substring(REGEX_PREFIX.length())));
+                }
+                else if (rule.length() > 0) {
+                    patterns.add(Pattern.compile(globToRegex(rule)));
+                }
+            }
+        }
+        return patterns;
+    }
+
+    private static String globToRegex(String glob) {
+        if (glob.endsWith("/")) {
+            glob += "**";
+        }
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                }
+                else {
+                    regex.append("[^/]*");
+                }
+            }
+            else if (c == '?') {
+                regex.append("[^/]");
+            }
+            else {
+                regex.append(Pattern.quote(Character.toString(c)));
+            }
+            i++;
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "includes " + includes + ", excludes " + excludes;
+    }
+}
@@ -12,17 +12,32 @@
 
 package com.googlecode.jeeunit.impl;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -32,6 +47,11 @@ import java.util.zip.ZipFile;
  * @author Barry Feigenbaum
  */
 public class ZipExploder {
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
     /**
      * create a zip exploder for unpacking .jar/.zip files
      */
@@ -100,6 +120,94 @@ public class ZipExploder {
         this.sortNames = sortNames;
     }
 
+    protected int threads = 1;
+
+    /**
+     * @return number of threads for copying entries
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads
+     *            number of threads for copying entries, or 0 for one thread per available
+     *            processor
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    protected boolean incremental;
+
+    /**
+     * @return Returns the incremental mode.
+     */
+    public boolean getIncremental() {
+        return incremental;
+    }
+
+    /**
+     * In incremental mode, the target directory is expected to persist between runs. A
+     * manifest of the entries in the target directory is kept next to it, named like the
+     * directory with the suffix {@code .manifest}. Entries whose name, size, CRC and time are
+     * unchanged since the last run are skipped, entries no longer contained in the archive
+     * are deleted. The target directory is locked against other processes while exploding.
+     * 
+     * @param incremental
+     *            set to <code>true</code> for incremental mode
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    protected ZipEntryFilter filter;
+
+    /**
+     * @return Returns the entry filter.
+     */
+    public ZipEntryFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Only entries accepted by the filter are exploded. In incremental mode, the targets of
+     * entries no longer accepted are deleted.
+     * 
+     * @param filter
+     *            entry filter, or null to explode all entries
+     */
+    public void setFilter(ZipEntryFilter filter) {
+        this.filter = filter;
+    }
+
+    protected int copiedEntries;
+
+    protected int skippedEntries;
+
+    protected int deletedEntries;
+
+    /**
+     * @return number of entries copied by this exploder
+     */
+    public int getCopiedEntries() {
+        return copiedEntries;
+    }
+
+    /**
+     * @return number of unchanged entries skipped by this exploder in incremental mode
+     */
+    public int getSkippedEntries() {
+        return skippedEntries;
+    }
+
+    /**
+     * @return number of removed entries deleted by this exploder in incremental mode
+     */
+    public int getDeletedEntries() {
+        return deletedEntries;
+    }
+
     /**
      * Explode source JAR and/or ZIP files into a target directory
      * 
@@ -160,9 +268,11 @@ public class ZipExploder {
      *                error creating a target file
      */
     public void processFile(String zipName, String destDir) throws IOException {
+        long start = StartupProfiler.getInstance().start();
         String source = new File(zipName).getCanonicalPath();
         String dest = new File(destDir).getCanonicalPath();
         ZipFile f = null;
+        RandomAccessFile lockFile = null;
         try {
             f = new ZipFile(source);
             Map<String, ZipEntry> fEntries = getEntries(f);
@@ -170,11 +280,29 @@ public class ZipExploder {
             if (sortNames) {
                 Arrays.sort(names);
             }
-            // copy all files
+            List<ZipEntry> entries = new ArrayList<ZipEntry>(names.length);
             for (int i = 0; i < names.length; i++) {
-                String name = names[i];
-                ZipEntry e = (ZipEntry) fEntries.get(name);
-                copyFileEntry(dest, f, e);
+                entries.add(fEntries.get(names[i]));
+            }
+            List<ZipEntry> changedEntries = entries;
+            if (incremental) {
+                lockFile = new RandomAccessFile(dest + LOCK_SUFFIX, "rw");
+                lockFile.getChannel().lock();
+                changedEntries = getChangedEntries(dest, entries);
+            }
+            int numThreads = getEffectiveThreads();
+            if (numThreads > 1) {
+                copyFileEntriesInParallel(dest, f, changedEntries, numThreads);
+            }
+            else {
+                // copy all files
+                for (ZipEntry e : changedEntries) {
+                    copyFileEntry(dest, f, e);
+                }
+            }
+            copiedEntries += changedEntries.size();
+            if (incremental) {
+                writeManifest(dest, entries);
             }
         }
         catch (IOException ioe) {
@@ -185,6 +313,14 @@ public class ZipExploder {
             throw new IOException(msg);
         }
         finally {
+            if (lockFile != null) {
+                try {
+                    // releases the lock
+                    lockFile.close();
+                }
+                catch (IOException ioe) {
+                }
+            }
             if (f != null) {
                 try {
                     f.close();
@@ -193,15 +329,231 @@ public class ZipExploder {
                 }
             }
         }
+        StartupProfiler.getInstance().record("explode", start);
+    }
+
+    /**
+     * Checks if a target directory exploded in incremental mode contains exactly the entries
+     * of the source file accepted by the filter, according to its manifest. The target
+     * directory is not modified.
+     *
+     * @param zipName
+     *            name of source file
+     * @param destDir
+     *            target directory name
+     * @return true if exploding the source file would not change the target directory
+     * @throws IOException
+     */
+    public boolean isUpToDate(String zipName, String destDir) throws IOException {
+        String dest = new File(destDir).getCanonicalPath();
+        ZipFile f = new ZipFile(zipName);
+        try {
+            Map<String, ZipEntry> entries = getEntries(f);
+            Properties manifest = readManifest(dest);
+            if (manifest.size() != entries.size()) {
+                return false;
+            }
+            for (ZipEntry ze : entries.values()) {
+                if (!getManifestRecord(ze).equals(manifest.getProperty(ze.getName()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Compares the entries with the manifest of the target directory, deletes the targets of
+     * removed entries and returns the entries to be copied. The manifest is rewritten without
+     * the changed and removed entries before anything is copied, so that an interrupted run
+     * is repaired by the next one.
+     */
+    protected List<ZipEntry> getChangedEntries(String destDir, List<ZipEntry> entries)
+            throws IOException {
+        Properties manifest = readManifest(destDir);
+        Properties unchanged = new Properties();
+        List<ZipEntry> changedEntries = new ArrayList<ZipEntry>();
+        for (ZipEntry ze : entries) {
+            String record = getManifestRecord(ze);
+            if (record.equals(manifest.remove(ze.getName())) && isPresent(destDir, ze)) {
+                unchanged.setProperty(ze.getName(), record);
+            }
+            else {
+                changedEntries.add(ze);
+            }
+        }
+
+        // delete removed entries, children before parents
+        String[] removed = manifest.keySet().toArray(new String[manifest.size()]);
+        Arrays.sort(removed);
+        for (int i = removed.length - 1; i >= 0; i--) {
+            new File(destDir, removed[i]).delete();
+        }
+        deletedEntries += removed.length;
+        skippedEntries += unchanged.size();
+
+        storeManifest(destDir, unchanged);
+        return changedEntries;
+    }
+
+    private boolean isPresent(String destDir, ZipEntry ze) {
+        File file = new File(destDir, ze.getName());
+        if (ze.isDirectory()) {
+            return file.isDirectory();
+        }
+        return file.isFile() && file.length() == ze.getSize();
+    }
+
+    private String getManifestRecord(ZipEntry ze) {
+        return ze.getSize() + "," + ze.getCrc() + "," + ze.getTime();
+    }
+
+    private Properties readManifest(String destDir) throws IOException {
+        Properties manifest = new Properties();
+        File manifestFile = new File(destDir + MANIFEST_SUFFIX);
+        if (manifestFile.isFile()) {
+            InputStream is = new FileInputStream(manifestFile);
+            try {
+                manifest.load(is);
+            }
+            finally {
+                is.close();
+            }
+        }
+        return manifest;
+    }
+
+    private void writeManifest(String destDir, List<ZipEntry> entries) throws IOException {
+        Properties manifest = new Properties();
+        for (ZipEntry ze : entries) {
+            manifest.setProperty(ze.getName(), getManifestRecord(ze));
+        }
+        storeManifest(destDir, manifest);
+    }
+
+    private void storeManifest(String destDir, Properties manifest) throws IOException {
+        File manifestFile = new File(destDir + MANIFEST_SUFFIX);
+        File tempFile = new File(destDir + MANIFEST_SUFFIX + ".tmp");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            manifest.store(os, "jeeunit exploded archive");
+        }
+        finally {
+            os.close();
+        }
+        manifestFile.delete();
+        if (!tempFile.renameTo(manifestFile)) {
+            throw new IOException("cannot rename " + tempFile + " to " + manifestFile);
+        }
+    }
+
+    private int getEffectiveThreads() {
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Creates all directories, then copies the file entries on a pool of worker threads, each
+     * reading its entry from the shared archive.
+     * <p>
+     * If any entries fail, the exception of the first failing entry in processing order is
+     * thrown, independent of the thread timing. Entries after a failed entry which have not
+     * yet been started are skipped.
+     */
+    protected void copyFileEntriesInParallel(final String destDir, final ZipFile zf,
+            List<ZipEntry> entries, int numThreads) throws IOException {
+        for (ZipEntry ze : entries) {
+            File dir = new File(destDir, ze.getName());
+            if (!ze.isDirectory()) {
+                dir = dir.getParentFile();
+            }
+            dir.mkdirs();
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactory() {
+
+                    private AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jeeunit-explode-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < entries.size(); i++) {
+                final ZipEntry ze = entries.get(i);
+                if (ze.isDirectory()) {
+                    continue;
+                }
+                final int index = i;
+                results.add(executorService.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        if (index > firstFailure.get()) {
+                            return null;
+                        }
+                        try {
+                            copyFileEntry(destDir, zf, ze);
+                        }
+                        catch (Exception exc) {
+                            int failure = firstFailure.get();
+                            while (index < failure
+                                    && !firstFailure.compareAndSet(failure, index)) {
+                                failure = firstFailure.get();
+                            }
+                            throw exc;
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                }
+                catch (ExecutionException exc) {
+                    Throwable cause = exc.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while exploding archive");
+                }
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
     }
 
-    /** Get all the entries in a ZIP file. */
+    /** Get all the entries in a ZIP file accepted by the filter. */
     protected Map<String, ZipEntry> getEntries(ZipFile zf) {
         Enumeration<?> e = zf.entries();
         Map<String, ZipEntry> m = new HashMap<String, ZipEntry>();
         while (e.hasMoreElements()) {
             ZipEntry ze = (ZipEntry) e.nextElement();
-            m.put(ze.getName(), ze);
+            if (filter == null || filter.accept(ze.getName())) {
+                m.put(ze.getName(), ze);
+            }
         }
         return m;
     }
@@ -215,22 +567,39 @@ public class ZipExploder {
      * @throws IOException
      */
     public void copyFileEntry(String destDir, ZipFile zf, ZipEntry ze) throws IOException {
-        DataInputStream dis = new DataInputStream(new BufferedInputStream(zf.getInputStream(ze)));
+        InputStream is = zf.getInputStream(ze);
         try {
-            copyFileEntry(destDir, ze.isDirectory(), ze.getName(), dis);
+            long storedSize = (ze.getMethod() == ZipEntry.STORED) ? ze.getSize() : -1;
+            copyFileEntry(destDir, ze.isDirectory(), ze.getName(), is, storedSize);
         }
         finally {
             try {
-                dis.close();
+                is.close();
             }
             catch (IOException ioe) {
             }
         }
     }
 
+    /**
+     * Copies an entry to the file system. The content is streamed, so the memory used does not
+     * depend on the size of the entry.
+     * 
+     * @param destDir
+     *            target directory name
+     * @param destIsDir
+     *            is the entry a directory?
+     * @param destFile
+     *            entry name
+     * @param is
+     *            entry content
+     * @param storedSize
+     *            size of an uncompressed entry, which is transferred by the file channel, or -1
+     *            for a compressed entry, which is copied via a pooled buffer
+     * @throws IOException
+     */
     protected void copyFileEntry(String destDir, boolean destIsDir, String destFile,
-            DataInputStream dis) throws IOException {
-        byte[] bytes = readAllBytes(dis);
+            InputStream is, long storedSize) throws IOException {
         File file = new File(destFile);
         String parent = file.getParent();
         if (parent != null && parent.length() > 0) {
@@ -246,7 +615,12 @@ public class ZipExploder {
         else {
             FileOutputStream fos = new FileOutputStream(outFile);
             try {
-                fos.write(bytes, 0, bytes.length);
+                if (storedSize >= 0) {
+                    transfer(is, fos.getChannel(), storedSize);
+                }
+                else {
+                    copy(is, fos);
+                }
             }
             finally {
                 try {
@@ -258,26 +632,33 @@ public class ZipExploder {
         }
     }
 
-    // *** below may be slow for large files ***
-    /** Read all the bytes in a ZIPed file */
-    protected byte[] readAllBytes(DataInputStream is) throws IOException {
-        byte[] bytes = new byte[0];
-        for (int len = is.available(); len > 0; len = is.available()) {
-            byte[] xbytes = new byte[len];
-            int count = is.read(xbytes);
-            if (count > 0) {
-                byte[] nbytes = new byte[bytes.length + count];
-                System.arraycopy(bytes, 0, nbytes, 0, bytes.length);
-                System.arraycopy(xbytes, 0, nbytes, bytes.length, count);
-                bytes = nbytes;
+    /** Copy a stream through a buffer taken from the pool. */
+    protected void copy(InputStream is, OutputStream os) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        byte[] buffer = pool.acquire();
+        try {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
             }
-            else if (count < 0) {
-                // accommodate apparent bug in IBM JVM where
-                // available() always returns positive value on some files
-                break;
+        }
+        finally {
+            pool.release(buffer);
+        }
+    }
+
+    /** Transfer a given number of bytes from a stream to a file channel. */
+    protected void transfer(InputStream is, FileChannel channel, long size) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(is);
+        long position = 0;
+        while (position < size) {
+            long count = channel.transferFrom(source, position, size - position);
+            if (count <= 0) {
+                throw new EOFException("unexpected end of entry after " + position + " of "
+                        + size + " bytes");
             }
+            position += count;
         }
-        return bytes;
     }
 
     protected void print(String s) {
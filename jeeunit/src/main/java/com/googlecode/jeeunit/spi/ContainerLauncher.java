@@ -46,6 +46,16 @@ public interface ContainerLauncher {
      * @return the URI of the application root context (e.g. http://localhost:8080/jeeunit/).
      */
     URI autodeploy();
+
+    /**
+     * Redeploys the application built by {@link #autodeploy()} if any class files or resources
+     * in the classpath directories have changed since the last deployment, reloading only the
+     * application and not the container. Deploys the application if it has not been deployed
+     * yet.
+     * 
+     * @return the URI of the application root context (e.g. http://localhost:8080/jeeunit/).
+     */
+    URI update();
     
     /**
      * Sets a classpath filter to be considered by {@link #autodeploy()}. Only the classpath
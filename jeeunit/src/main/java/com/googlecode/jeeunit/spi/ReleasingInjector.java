@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.spi;
+
+/**
+ * An {@link Injector} which holds resources for each injected test instance, to be released
+ * when the test has finished. This is a separate interface, so that existing injectors remain
+ * compatible.
+ * 
+ * @author hwellmann
+ * 
+ */
+public interface ReleasingInjector extends Injector {
+
+    /**
+     * Releases any resources held for the given target, which must have been passed to
+     * {@link #injectFields(Object)} before. Called when the test using the target has finished.
+     * 
+     * @param target
+     *            test instance
+     */
+    void release(Object target);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.spi;
+
+import org.junit.runner.Description;
+
+import com.googlecode.jeeunit.PhaseTimings;
+
+/**
+ * Receives the server-side phase timings of each test run remotely by
+ * {@code JeeunitRunner}. Implementations are registered in
+ * {@code META-INF/services/com.googlecode.jeeunit.spi.TestTimingListener}.
+ * 
+ * @author hwellmann
+ *
+ */
+public interface TestTimingListener {
+
+    /**
+     * Called after a test has finished in the container.
+     * 
+     * @param description
+     *            test description
+     * @param timings
+     *            phase timings
+     */
+    void testTimed(Description description, PhaseTimings timings);
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
+
+public class ClasspathFingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+    }
+
+    @Test
+    public void shouldIgnoreLocationOfGeneratedMetadata() throws IOException {
+        File first = createBeansXml("run1", "");
+        File second = createBeansXml("run2", "");
+        second.setLastModified(first.lastModified() - 10000);
+
+        assertEquals(getKey(first), getKey(second));
+    }
+
+    @Test
+    public void shouldDetectChangedMetadata() throws IOException {
+        File first = createBeansXml("run1", "");
+        File second = createBeansXml("run2", "<beans/>");
+
+        assertFalse(getKey(first).equals(getKey(second)));
+    }
+
+    private String getKey(File beansXml) {
+        File webXml = new File(root, "missing/web.xml");
+        return new ClasspathFingerprint("test").addMetadata(Arrays.asList(webXml, beansXml))
+            .getKey();
+    }
+
+    private File createBeansXml(String dirName, String content) throws IOException {
+        File dir = new File(root, dirName);
+        dir.mkdirs();
+        File file = new File(dir, "beans.xml");
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        }
+        finally {
+            writer.close();
+        }
+        return file;
+    }
+}
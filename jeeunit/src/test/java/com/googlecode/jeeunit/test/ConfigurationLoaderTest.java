@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.jeeunit.impl.Configuration;
+import com.googlecode.jeeunit.impl.ConfigurationLoader;
+import com.googlecode.jeeunit.impl.Constants;
+
+public class ConfigurationLoaderTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty(Constants.KEY_REMOTE_PARALLEL_THREADS);
+        ConfigurationLoader.reset();
+    }
+
+    @Test
+    public void shouldOverrideWithSystemProperty() {
+        System.setProperty(Constants.KEY_REMOTE_PARALLEL_THREADS, "7");
+        ConfigurationLoader.reset();
+        assertEquals(7, new ConfigurationLoader().load().getRemoteParallelThreads());
+    }
+
+    @Test
+    public void shouldReturnIndependentCopies() {
+        ConfigurationLoader loader = new ConfigurationLoader();
+        Configuration first = loader.load();
+        first.setHttpPort(4711);
+        Configuration second = loader.load();
+        assertNotSame(first, second);
+        assertEquals(Integer.parseInt(Constants.HTTP_PORT_DEFAULT), second.getHttpPort());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.Runner;
+
+import com.googlecode.jeeunit.impl.ContainerTestRunnerCache;
+import com.googlecode.jeeunit.spi.Injector;
+
+public class ContainerTestRunnerCacheTest {
+
+    public static class Fixture {
+
+        @Test
+        public void first() {
+        }
+
+        @Test
+        public void second() {
+        }
+    }
+
+    private ContainerTestRunnerCache cache = new ContainerTestRunnerCache(new Injector() {
+
+        @Override
+        public void injectFields(Object target) {
+        }
+    });
+
+    @Test
+    public void shouldReuseRunnerForSameClass() {
+        Runner runner = cache.getRunner(Fixture.class, null);
+        assertEquals(2, runner.testCount());
+        assertSame(runner, cache.getRunner(Fixture.class, null));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldKeyRunnersByMethods() {
+        Runner all = cache.getRunner(Fixture.class, null);
+        Runner filtered = cache.getRunner(Fixture.class, new String[] { "second", "first" });
+        Runner single = cache.getRunner(Fixture.class, new String[] { "second" });
+        assertNotSame(all, filtered);
+        assertEquals(1, single.testCount());
+
+        assertSame(filtered, cache.getRunner(Fixture.class, new String[] { "first", "second" }));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+    }
+}
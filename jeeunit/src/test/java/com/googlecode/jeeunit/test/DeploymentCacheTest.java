@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.ClasspathFingerprint;
+import com.googlecode.jeeunit.impl.Configuration;
+import com.googlecode.jeeunit.impl.DeploymentCache;
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
+import com.googlecode.jeeunit.impl.ZipExploder;
+
+public class DeploymentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File tempDir;
+    private File classes;
+    private DeploymentCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = folder.getRoot();
+        classes = new File(tempDir, "classes/com/example");
+        classes.mkdirs();
+        write(new File(classes, "Foo.class"), "foo");
+
+        Configuration config = new Configuration();
+        config.setDeployCacheDir(new File(tempDir, "cache").getPath());
+        config.setDeployCacheSize(2);
+        cache = new DeploymentCache(config);
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+
+    private String fingerprint() {
+        return new ClasspathFingerprint("test").add(new File(tempDir, "classes")).getKey();
+    }
+
+    @Test
+    public void fingerprintShouldDependOnNestedFiles() throws IOException {
+        String key = fingerprint();
+        assertEquals(key, fingerprint());
+
+        write(new File(classes, "Foo.class"), "foo2");
+        String changed = fingerprint();
+        assertFalse(key.equals(changed));
+
+        write(new File(classes, "Bar.class"), "bar");
+        assertFalse(changed.equals(fingerprint()));
+    }
+
+    @Test
+    public void shouldReuseCachedWar() throws IOException {
+        String key = fingerprint();
+        assertNull(cache.get(key));
+
+        File war = new File(tempDir, "built.war");
+        write(war, "war");
+        File cached = cache.put(key, war);
+        assertNotSame(war, cached);
+        assertTrue(cached.isFile());
+        assertEquals(cached, cache.get(key));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedWars() throws IOException {
+        File[] cached = new File[3];
+        for (int i = 0; i < cached.length; i++) {
+            File war = new File(tempDir, "built.war");
+            write(war, "war" + i);
+            cached[i] = cache.put("key" + i, war);
+            cached[i].setLastModified(1000000000000L + i * 1000);
+        }
+        File war = new File(tempDir, "built.war");
+        write(war, "war3");
+        cache.put("key3", war);
+        assertNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertEquals(cached[2], cache.get("key2"));
+    }
+
+    @Test
+    public void shouldNotEvictLeasedWar() throws IOException {
+        File[] cached = new File[2];
+        for (int i = 0; i < cached.length; i++) {
+            File war = new File(tempDir, "built.war");
+            write(war, "war" + i);
+            cached[i] = cache.put("key" + i, war);
+            cached[i].setLastModified(1000000000000L + i * 1000);
+        }
+        FileChannel lease = cache.leaseWar(cached[0]);
+        for (int i = 2; i < 4; i++) {
+            File war = new File(tempDir, "built.war");
+            write(war, "war" + i);
+            cache.put("key" + i, war);
+        }
+        assertEquals(cached[0], cache.get("key0"));
+        assertNull(cache.get("key1"));
+        lease.close();
+    }
+
+    private void writeWar(File war, String... entries) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                zos.putNextEntry(new ZipEntry(entries[i]));
+                zos.write(entries[i + 1].getBytes("UTF-8"));
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+    }
+
+    private String read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            return reader.readLine();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private ZipExploder exploder() {
+        ZipExploder exploder = new ZipExploder();
+        exploder.setFilter(new ZipEntryFilter(null, null));
+        return exploder;
+    }
+
+    @Test
+    public void shouldUpdateExplodedDirInPlace() throws IOException {
+        File war = new File(tempDir, "base.war");
+        writeWar(war, "index.html", "v1");
+        DeploymentCache.ExplodedDir exploded = cache.explode(war, exploder());
+        File dir = exploded.getDir();
+        assertEquals("v1", read(new File(dir, "index.html")));
+        exploded.getLease().close();
+
+        writeWar(war, "index.html", "v2", "added.html", "v2");
+        ZipExploder exploder = exploder();
+        exploded = cache.explode(war, exploder);
+        assertEquals(dir, exploded.getDir());
+        assertEquals("v2", read(new File(dir, "index.html")));
+        assertTrue(new File(dir, "added.html").isFile());
+        assertEquals(2, exploder.getCopiedEntries());
+        exploded.getLease().close();
+
+        exploded = cache.explode(war, new ZipExploder());
+        assertFalse(dir.equals(exploded.getDir()));
+        exploded.getLease().close();
+    }
+
+    @Test
+    public void shouldNotUpdateLeasedExplodedDir() throws IOException {
+        File war = new File(tempDir, "base.war");
+        writeWar(war, "index.html", "v1");
+        DeploymentCache.ExplodedDir exploded = cache.explode(war, exploder());
+
+        writeWar(war, "index.html", "v2");
+        DeploymentCache.ExplodedDir changed = cache.explode(war, exploder());
+        assertFalse(exploded.getDir().equals(changed.getDir()));
+        assertEquals("v1", read(new File(exploded.getDir(), "index.html")));
+        assertEquals("v2", read(new File(changed.getDir(), "index.html")));
+        exploded.getLease().close();
+        changed.getLease().close();
+    }
+
+    @Test
+    public void shouldNotEvictLeasedExplodedDir() throws IOException {
+        DeploymentCache.ExplodedDir[] exploded = new DeploymentCache.ExplodedDir[4];
+        for (int i = 0; i < 3; i++) {
+            File war = new File(tempDir, "base" + i + ".war");
+            writeWar(war, "index.html", "base" + i);
+            exploded[i] = cache.explode(war, exploder());
+            File dir = exploded[i].getDir();
+            new File(dir.getPath() + ".lease").setLastModified(1000000000000L + i * 1000);
+        }
+        exploded[1].getLease().close();
+        exploded[2].getLease().close();
+
+        File war = new File(tempDir, "base3.war");
+        writeWar(war, "index.html", "base3");
+        exploded[3] = cache.explode(war, exploder());
+        assertTrue(exploded[0].getDir().isDirectory());
+        assertFalse(exploded[1].getDir().exists());
+        assertTrue(exploded[2].getDir().isDirectory());
+        exploded[0].getLease().close();
+        exploded[3].getLease().close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import com.googlecode.jeeunit.impl.TestEvent;
+import com.googlecode.jeeunit.impl.TestEvent.Type;
+import com.googlecode.jeeunit.impl.TestEventCodec;
+
+/**
+ * Compares bytes and CPU time per test call of the {@link TestEventCodec} with the previous
+ * protocol, which wrote the exception of a failed test or the string {@code ok} with a new
+ * {@link ObjectOutputStream} per call. Each call is encoded and decoded.
+ * <p>
+ * The binary format is smaller and faster for failing tests, which dominate the cost of the
+ * previous protocol. For passing tests, it transmits the start and end events with timestamps
+ * instead of a single string, so it is only reported and not asserted.
+ * <p>
+ * This class does not match the Surefire naming pattern, so it is not part of the default
+ * build. Run it with {@code mvn test -Dtest=EventCodecBenchmark}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class EventCodecBenchmark {
+
+    private static final int WARMUP_CALLS = 20000;
+    private static final int CALLS = 20000;
+
+    private ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private AssertionError error = new AssertionError("expected:<1> but was:<2>");
+
+    @Test
+    public void reportPassingTests() throws Exception {
+        compare("passing", null);
+    }
+
+    @Test
+    public void binaryFormatShouldUseLessBytesAndCpuForFailingTests() throws Exception {
+        long[] result = compare("failing", error);
+        assertTrue(result[2] < result[0]);
+        assertTrue(result[3] < result[1]);
+    }
+
+    /**
+     * @return bytes and CPU nanos of serialization, bytes and CPU nanos of the binary format
+     */
+    private long[] compare(String label, Throwable exc) throws Exception {
+        callSerialization(exc, WARMUP_CALLS);
+        callBinary(exc, WARMUP_CALLS);
+
+        long start = cpuTime();
+        long serializedBytes = callSerialization(exc, CALLS);
+        long serializationNanos = cpuTime() - start;
+
+        start = cpuTime();
+        long binaryBytes = callBinary(exc, CALLS);
+        long binaryNanos = cpuTime() - start;
+
+        System.out.println(String.format(
+                "%s test: serialization %d bytes, %d ns per call; binary %d bytes, %d ns per call",
+                label, serializedBytes / CALLS, serializationNanos / CALLS, binaryBytes / CALLS,
+                binaryNanos / CALLS));
+        return new long[] { serializedBytes, serializationNanos, binaryBytes, binaryNanos };
+    }
+
+    private long cpuTime() {
+        if (threadBean.isCurrentThreadCpuTimeSupported()) {
+            return threadBean.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Encodes and decodes the result of each call with the previous protocol.
+     * 
+     * @return total number of bytes
+     */
+    private long callSerialization(Throwable exc, int calls) throws Exception {
+        long numBytes = 0;
+        for (int i = 0; i < calls; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject((exc == null) ? "ok" : exc);
+            oos.flush();
+            numBytes += baos.size();
+
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+                    baos.toByteArray()));
+            ois.readObject();
+        }
+        return numBytes;
+    }
+
+    /**
+     * Encodes and decodes the events of each call with the binary codec.
+     * 
+     * @return total number of bytes
+     */
+    private long callBinary(Throwable exc, int calls) throws IOException {
+        long numBytes = 0;
+        for (int i = 0; i < calls; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream os = new DataOutputStream(baos);
+            TestEventCodec.writeHeader(os);
+            TestEventCodec.writeEvent(os, new TestEvent(Type.STARTED, "someMethod"), false);
+            if (exc != null) {
+                TestEvent failure = new TestEvent(Type.FAILED, "someMethod");
+                failure.setException(exc);
+                TestEventCodec.writeEvent(os, failure, false);
+            }
+            TestEventCodec.writeEvent(os, new TestEvent(Type.FINISHED, "someMethod"), false);
+            TestEventCodec.writeEvent(os, new TestEvent(Type.RUN_FINISHED, null), false);
+            os.flush();
+            numBytes += baos.size();
+
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(
+                    baos.toByteArray()));
+            TestEventCodec.readHeader(is);
+            int numEvents = (exc == null) ? 3 : 4;
+            for (int j = 0; j < numEvents; j++) {
+                TestEventCodec.readEvent(is);
+            }
+        }
+        return numBytes;
+    }
+}
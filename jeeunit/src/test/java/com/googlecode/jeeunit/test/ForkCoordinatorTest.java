@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.ForkCoordinator;
+
+public class ForkCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private ForkCoordinator coordinator;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot();
+        coordinator = new ForkCoordinator(new File(dir, "state.properties"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        coordinator.releaseLease();
+    }
+
+    @Test
+    public void shouldCountOwnLease() throws Exception {
+        assertEquals(0, coordinator.countLeases());
+        coordinator.lock();
+        try {
+            coordinator.acquireLease();
+            coordinator.acquireLease();
+            assertEquals(1, coordinator.countLeases());
+            coordinator.releaseLease();
+            assertEquals(0, coordinator.countLeases());
+        }
+        finally {
+            coordinator.unlock();
+        }
+    }
+
+    @Test
+    public void shouldDropLeaseOfTerminatedJvm() throws Exception {
+        File leases = new File(dir, "state.properties.leases");
+        leases.mkdirs();
+        File stale = new File(leases, "stale.lease");
+        stale.createNewFile();
+
+        coordinator.lock();
+        try {
+            coordinator.acquireLease();
+            assertEquals(1, coordinator.countLeases());
+            assertFalse(stale.exists());
+        }
+        finally {
+            coordinator.unlock();
+        }
+    }
+}
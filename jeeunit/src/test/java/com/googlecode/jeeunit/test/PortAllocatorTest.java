@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import com.googlecode.jeeunit.impl.Configuration;
+import com.googlecode.jeeunit.impl.PortAllocator;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void shouldDetectBoundPort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            assertFalse(PortAllocator.isFree(socket.getLocalPort()));
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldResolvePortZeroOnly() {
+        Configuration config = new Configuration();
+        config.setHttpPort(0);
+        int port = PortAllocator.resolveHttpPort(config);
+        assertTrue(port > 0);
+        assertEquals(port, config.getHttpPort());
+        assertEquals(port, PortAllocator.resolveHttpPort(config));
+
+        config.setHttpPort(8080);
+        assertEquals(8080, PortAllocator.resolveHttpPort(config));
+    }
+
+    @Test
+    public void shouldSkipOffsetWithBoundPort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            int base = socket.getLocalPort() - 1;
+            for (int i = 0; i < 10; i++) {
+                int offset = PortAllocator.findFreeOffset(new int[] { base }, 1, 2);
+                assertEquals(2, offset);
+            }
+        }
+        finally {
+            socket.close();
+        }
+    }
+}
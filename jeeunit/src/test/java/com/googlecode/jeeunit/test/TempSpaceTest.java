@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.TempSpace;
+
+public class TempSpaceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private TempSpace tempSpace;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+        tempSpace = new TempSpace(root);
+    }
+
+    @Test
+    public void shouldKeepLeasedDirectory() {
+        File dir = tempSpace.createTempDir("test");
+        assertTrue(dir.isDirectory());
+        assertEquals(root, dir.getParentFile());
+        assertEquals(0, tempSpace.sweep());
+        assertTrue(dir.isDirectory());
+        tempSpace.release(dir);
+    }
+
+    @Test
+    public void shouldRemoveReleasedDirectoryImmediately() {
+        File dir = tempSpace.createTempDir("test");
+        tempSpace.release(dir);
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void shouldSweepOrphans() throws Exception {
+        File orphan = new File(root, "orphan");
+        orphan.mkdirs();
+        File lease = new File(orphan, ".jeeunit-lease");
+        lease.createNewFile();
+        lease.setLastModified(System.currentTimeMillis() - 60000);
+
+        File young = new File(root, "young");
+        young.mkdirs();
+
+        assertEquals(1, tempSpace.sweep());
+        assertFalse(orphan.exists());
+        assertTrue(young.exists());
+    }
+
+    @Test
+    public void shouldDeleteLeftoverTrashOnCreate() throws Exception {
+        File trash = new File(root, ".trash-test-left-over");
+        new File(trash, "sub").mkdirs();
+        new File(trash, "sub/file.txt").createNewFile();
+
+        File dir = tempSpace.createTempDir("test");
+        assertFalse(trash.exists());
+        tempSpace.release(dir);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.junit.ComparisonFailure;
+import org.junit.Test;
+import org.junit.internal.AssumptionViolatedException;
+
+import com.googlecode.jeeunit.PhaseTimings;
+import com.googlecode.jeeunit.PhaseTimings.Phase;
+import com.googlecode.jeeunit.impl.TestEvent;
+import com.googlecode.jeeunit.impl.TestEvent.Type;
+import com.googlecode.jeeunit.impl.TestEventCodec;
+import com.googlecode.jeeunit.impl.TestEventCodec.RemoteException;
+
+public class TestEventCodecTest {
+
+    private static final int NUM_EVENTS = 2000;
+
+    private TestEvent roundTrip(TestEvent event, boolean javaSerialization) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(baos);
+        TestEventCodec.writeHeader(os);
+        TestEventCodec.writeEvent(os, event, javaSerialization);
+        os.flush();
+
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        TestEventCodec.readHeader(is);
+        return TestEventCodec.readEvent(is);
+    }
+
+    private TestEvent failure(Type type, Throwable exc) {
+        TestEvent event = new TestEvent(type, "someMethod");
+        event.setException(exc);
+        return event;
+    }
+
+    @Test
+    public void shouldEncodeEventWithoutException() throws IOException {
+        TestEvent event = new TestEvent(Type.FINISHED, "someMethod");
+        event.setElapsedNanos(4711);
+        TestEvent decoded = roundTrip(event, false);
+        assertEquals(Type.FINISHED, decoded.getType());
+        assertEquals("someMethod", decoded.getMethodName());
+        assertEquals(event.getTimestamp(), decoded.getTimestamp());
+        assertEquals(4711, decoded.getElapsedNanos());
+        assertNull(decoded.getException());
+        assertNull(decoded.getPhaseTimings());
+    }
+
+    @Test
+    public void shouldEncodePhaseTimings() throws IOException {
+        PhaseTimings timings = new PhaseTimings();
+        timings.addNanos(Phase.INJECTION, 100);
+        timings.addNanos(Phase.METHOD, 5000000000L);
+        TestEvent event = new TestEvent(Type.FINISHED, "someMethod");
+        event.setPhaseTimings(timings);
+
+        PhaseTimings decoded = roundTrip(event, false).getPhaseTimings();
+        assertEquals(100, decoded.getNanos(Phase.INJECTION));
+        assertEquals(0, decoded.getNanos(Phase.TRANSACTION_BEGIN));
+        assertEquals(5000000000L, decoded.getNanos(Phase.METHOD));
+        assertEquals(5000000100L, decoded.getTotalNanos());
+    }
+
+    @Test
+    public void shouldEncodeAssertionError() throws IOException {
+        AssertionError error = new AssertionError("expected:<1> but was:<2>");
+        Throwable decoded = roundTrip(failure(Type.FAILED, error), false).getException();
+        assertSame(AssertionError.class, decoded.getClass());
+        assertEquals(error.getMessage(), decoded.getMessage());
+        assertStackTraceEquals(error.getStackTrace(), decoded.getStackTrace());
+    }
+
+    /**
+     * Compares the elements encoded by the codec. Since Java 9, stack trace elements have
+     * additional module and class loader fields which are not encoded.
+     */
+    private void assertStackTraceEquals(StackTraceElement[] expected, StackTraceElement[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    @Test
+    public void shouldEncodeCause() throws IOException {
+        IllegalStateException exc = new IllegalStateException("outer", new IOException("inner"));
+        Throwable decoded = roundTrip(failure(Type.FAILED, exc), false).getException();
+        assertSame(IllegalStateException.class, decoded.getClass());
+        assertSame(IOException.class, decoded.getCause().getClass());
+        assertEquals("inner", decoded.getCause().getMessage());
+    }
+
+    @Test
+    public void shouldPreserveAssertionErrorWithoutMessageConstructor() throws IOException {
+        ComparisonFailure exc = new ComparisonFailure("text", "foo", "bar");
+        Throwable decoded = roundTrip(failure(Type.FAILED, exc), false).getException();
+        assertTrue(decoded instanceof AssertionError);
+        assertEquals(exc.getMessage(), decoded.getMessage());
+    }
+
+    @Test
+    public void shouldEncodeNonSerializableAssumption() throws IOException {
+        AssumptionViolatedException exc = new AssumptionViolatedException(false, is(true));
+        Throwable decoded = roundTrip(failure(Type.ASSUMPTION_FAILED, exc), true).getException();
+        assertTrue(decoded instanceof AssumptionViolatedException);
+        assertEquals(exc.getMessage(), decoded.getMessage());
+    }
+
+    @Test
+    public void shouldSubstituteUnknownExceptionClass() throws IOException {
+        RemoteException exc = new RemoteException("com.example.NoSuchException", "remote");
+        Throwable decoded = roundTrip(failure(Type.FAILED, exc), false).getException();
+        assertEquals("com.example.NoSuchException: remote", decoded.toString());
+    }
+
+    @Test
+    public void shouldUseJavaSerializationOnRequest() throws IOException {
+        ComparisonFailure exc = new ComparisonFailure("text", "foo", "bar");
+        Throwable decoded = roundTrip(failure(Type.FAILED, exc), true).getException();
+        assertSame(ComparisonFailure.class, decoded.getClass());
+        assertEquals("bar", ((ComparisonFailure) decoded).getActual());
+    }
+
+    /**
+     * Compares the binary format to the previous protocol, which wrote each result with a new
+     * {@link ObjectOutputStream}.
+     */
+    @Test
+    public void binaryFormatShouldBeSmallerThanSerialization() throws IOException {
+        AssertionError error = new AssertionError("expected:<1> but was:<2>");
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            ObjectOutputStream oos = new ObjectOutputStream(serialized);
+            oos.writeObject(error);
+            oos.flush();
+        }
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(binary);
+        TestEventCodec.writeHeader(os);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            TestEventCodec.writeEvent(os, failure(Type.FAILED, error), false);
+        }
+        os.flush();
+
+        assertTrue(binary.size() < serialized.size());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.WarOverlay;
+
+public class WarOverlayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File workDir;
+    private File merged;
+
+    @Before
+    public void setUp() {
+        workDir = folder.getRoot();
+    }
+
+    @After
+    public void tearDown() {
+        if (merged != null) {
+            merged.delete();
+        }
+    }
+
+    @Test
+    public void shouldMergeOntoBaseWar() throws IOException {
+        File base = writeWar("base.war", "index.html", "base", "WEB-INF/web.xml", "base");
+        File war = writeWar("jeeunit.war", "WEB-INF/web.xml", "overlay",
+                "WEB-INF/classes/Foo.class", "overlay");
+
+        merged = new WarOverlay(base).merge(war);
+
+        assertFalse(war.exists());
+        ZipFile zf = new ZipFile(merged);
+        try {
+            assertEquals(3, zf.size());
+            assertEquals("base", read(zf, "index.html"));
+            assertEquals("base", read(zf, "WEB-INF/web.xml"));
+            assertEquals("overlay", read(zf, "WEB-INF/classes/Foo.class"));
+            assertEquals(ZipEntry.DEFLATED, zf.getEntry("index.html").getMethod());
+        }
+        finally {
+            zf.close();
+        }
+    }
+
+    @Test
+    public void shouldCopyEntriesWithoutRecompressing() throws IOException {
+        File base = new File(workDir, "base.war");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(base));
+        try {
+            zos.setLevel(Deflater.BEST_COMPRESSION);
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("index.html"));
+            for (int i = 0; i < 1000; i++) {
+                zos.write(("line " + i + "\n").getBytes());
+            }
+            zos.closeEntry();
+            byte[] stored = "stored".getBytes();
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ZipEntry entry = new ZipEntry("stored.txt");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(stored);
+            zos.closeEntry();
+        }
+        finally {
+            zos.close();
+        }
+        File war = writeWar("jeeunit.war", "WEB-INF/classes/Foo.class", "overlay");
+
+        merged = new WarOverlay(base).merge(war);
+
+        ZipFile source = new ZipFile(base);
+        ZipFile zf = new ZipFile(merged);
+        try {
+            assertEquals(4, zf.size());
+            ZipEntry index = zf.getEntry("index.html");
+            assertEquals(ZipEntry.DEFLATED, index.getMethod());
+            assertEquals(source.getEntry("index.html").getCompressedSize(),
+                    index.getCompressedSize());
+            assertEquals(ZipEntry.STORED, zf.getEntry("stored.txt").getMethod());
+            assertEquals("stored", read(zf, "stored.txt"));
+            assertEquals("overlay", read(zf, "WEB-INF/classes/Foo.class"));
+        }
+        finally {
+            zf.close();
+            source.close();
+        }
+
+        // local headers must be consistent with the central directory
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(merged));
+        try {
+            int numEntries = 0;
+            byte[] buffer = new byte[1024];
+            while (zis.getNextEntry() != null) {
+                while (zis.read(buffer) != -1) {
+                    // ZipInputStream checks size and CRC
+                }
+                numEntries++;
+            }
+            assertEquals(4, numEntries);
+        }
+        finally {
+            zis.close();
+        }
+    }
+
+    private File writeWar(String name, String... namesAndContents) throws IOException {
+        File war = new File(workDir, name);
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zos.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zos.write(namesAndContents[i + 1].getBytes());
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+        return war;
+    }
+
+    private String read(ZipFile zf, String name) throws IOException {
+        InputStream is = zf.getInputStream(zf.getEntry(name));
+        try {
+            return new Scanner(is).nextLine();
+        }
+        finally {
+            is.close();
+        }
+    }
+}
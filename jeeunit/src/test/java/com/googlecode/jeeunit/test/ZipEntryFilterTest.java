@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
+
+public class ZipEntryFilterTest {
+
+    @Test
+    public void shouldAcceptAllWithoutRules() {
+        ZipEntryFilter filter = new ZipEntryFilter(null, " ");
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.accept("WEB-INF/lib/foo.jar"));
+    }
+
+    @Test
+    public void shouldMatchGlobs() {
+        ZipEntryFilter filter = new ZipEntryFilter(null, "WEB-INF/lib/**, *.psd, img/?.gif");
+        assertFalse(filter.accept("WEB-INF/lib/foo.jar"));
+        assertFalse(filter.accept("WEB-INF/lib/"));
+        assertTrue(filter.accept("WEB-INF/web.xml"));
+        assertFalse(filter.accept("logo.psd"));
+        assertTrue(filter.accept("img/logo.psd"));
+        assertFalse(filter.accept("img/a.gif"));
+        assertTrue(filter.accept("img/ab.gif"));
+    }
+
+    @Test
+    public void shouldMatchDirectoryGlob() {
+        ZipEntryFilter filter = new ZipEntryFilter("WEB-INF/, index.html", null);
+        assertTrue(filter.accept("WEB-INF/"));
+        assertTrue(filter.accept("WEB-INF/classes/Foo.class"));
+        assertTrue(filter.accept("index.html"));
+        assertFalse(filter.accept("META-INF/MANIFEST.MF"));
+    }
+
+    @Test
+    public void shouldMatchRegex() {
+        ZipEntryFilter filter = new ZipEntryFilter("regex:WEB-INF/.*",
+                "regex:WEB-INF/lib/(?!app-).*\\.jar");
+        assertTrue(filter.accept("WEB-INF/lib/app-core.jar"));
+        assertFalse(filter.accept("WEB-INF/lib/commons-io.jar"));
+        assertFalse(filter.accept("index.html"));
+    }
+}
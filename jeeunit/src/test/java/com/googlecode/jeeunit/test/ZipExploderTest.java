@@ -0,0 +1,336 @@
+/*
+ * Copyright 2012 Harald Wellmann
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jeeunit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.jeeunit.impl.BufferPool;
+import com.googlecode.jeeunit.impl.ZipEntryFilter;
+import com.googlecode.jeeunit.impl.ZipExploder;
+
+public class ZipExploderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int MB = 1024 * 1024;
+
+    private File workDir;
+    private File war;
+    private File explodedDir;
+    private byte[] block;
+
+    @Before
+    public void setUp() {
+        workDir = folder.getRoot();
+        explodedDir = new File(workDir, "exploded");
+        explodedDir.mkdirs();
+        war = new File(workDir, "base.war");
+
+        block = new byte[MB];
+        byte[] line = "0123456789 jeeunit large WAR regression\n".getBytes();
+        for (int i = 0; i < block.length; i++) {
+            block[i] = line[i % line.length];
+        }
+    }
+
+    @Test
+    public void shouldExplodeNestedEntries() throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("WEB-INF/classes/empty.txt"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("index.html"));
+            zos.write("<html/>".getBytes());
+            zos.closeEntry();
+        }
+        finally {
+            zos.close();
+        }
+
+        new ZipExploder().processFile(war.getPath(), explodedDir.getPath());
+
+        assertTrue(new File(explodedDir, "WEB-INF").isDirectory());
+        assertEquals(0, new File(explodedDir, "WEB-INF/classes/empty.txt").length());
+        assertEquals(7, new File(explodedDir, "index.html").length());
+    }
+
+    @Test
+    public void shouldExplodeInParallel() throws IOException {
+        int numEntries = 200;
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (int i = 0; i < numEntries; i++) {
+                zos.putNextEntry(new ZipEntry("WEB-INF/lib/" + (i % 7) + "/lib" + i + ".jar"));
+                zos.write(block, 0, 1000 * i);
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+
+        ZipExploder exploder = new ZipExploder();
+        exploder.setThreads(4);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+
+        for (int i = 0; i < numEntries; i++) {
+            File file = new File(explodedDir, "WEB-INF/lib/" + (i % 7) + "/lib" + i + ".jar");
+            assertEquals(1000 * i, file.length());
+        }
+    }
+
+    @Test
+    public void shouldReportFirstFailingEntryInParallelMode() throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (char c = 'a'; c <= 'f'; c++) {
+                zos.putNextEntry(new ZipEntry(c + ".txt"));
+                zos.write(c);
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+
+        ZipExploder exploder = new ZipExploder(false, true) {
+
+            @Override
+            public void copyFileEntry(String destDir, ZipFile zf, ZipEntry ze)
+                throws IOException {
+                if (ze.getName().equals("b.txt")) {
+                    try {
+                        Thread.sleep(200);
+                    }
+                    catch (InterruptedException exc) {
+                        throw new InterruptedIOException();
+                    }
+                    throw new IOException("cannot copy b.txt");
+                }
+                if (ze.getName().equals("d.txt")) {
+                    throw new IOException("cannot copy d.txt");
+                }
+                super.copyFileEntry(destDir, zf, ze);
+            }
+        };
+        exploder.setThreads(4);
+        try {
+            exploder.processFile(war.getPath(), explodedDir.getPath());
+            fail("expected IOException");
+        }
+        catch (IOException exc) {
+            assertTrue(exc.getMessage(), exc.getMessage().startsWith("cannot copy b.txt"));
+        }
+        assertTrue(new File(explodedDir, "a.txt").exists());
+    }
+
+    @Test
+    public void shouldExplodeIncrementally() throws IOException {
+        writeWar("a.txt", "a", "WEB-INF/b.txt", "b", "WEB-INF/lib/c.jar", "c");
+        ZipExploder exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertEquals(3, exploder.getCopiedEntries());
+        assertTrue(new File(explodedDir.getPath() + ".manifest").isFile());
+
+        exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertEquals(0, exploder.getCopiedEntries());
+        assertEquals(3, exploder.getSkippedEntries());
+
+        writeWar("a.txt", "A", "WEB-INF/b.txt", "b", "WEB-INF/d.txt", "dd");
+        exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertEquals(2, exploder.getCopiedEntries());
+        assertEquals(1, exploder.getSkippedEntries());
+        assertEquals(1, exploder.getDeletedEntries());
+        assertEquals("A", read(new File(explodedDir, "a.txt")));
+        assertEquals(2, new File(explodedDir, "WEB-INF/d.txt").length());
+        assertFalse(new File(explodedDir, "WEB-INF/lib/c.jar").exists());
+
+        // a target modified outside of the exploder is restored
+        new File(explodedDir, "WEB-INF/b.txt").delete();
+        exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertEquals(1, exploder.getCopiedEntries());
+        assertEquals("b", read(new File(explodedDir, "WEB-INF/b.txt")));
+    }
+
+    @Test
+    public void shouldSkipFilteredEntries() throws IOException {
+        writeWar("index.html", "a", "WEB-INF/web.xml", "b", "WEB-INF/lib/c.jar", "c");
+        ZipExploder exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertTrue(new File(explodedDir, "WEB-INF/lib/c.jar").exists());
+
+        exploder = new ZipExploder();
+        exploder.setIncremental(true);
+        exploder.setFilter(new ZipEntryFilter(null, "WEB-INF/lib/"));
+        exploder.processFile(war.getPath(), explodedDir.getPath());
+        assertEquals(1, exploder.getDeletedEntries());
+        assertFalse(new File(explodedDir, "WEB-INF/lib/c.jar").exists());
+        assertTrue(new File(explodedDir, "WEB-INF/web.xml").exists());
+    }
+
+    /**
+     * Each entry of a base WAR used to be accumulated on the heap by repeated array
+     * concatenation, which is quadratic when the stream reports small chunks as available, and
+     * needs at least the entry size on the heap in any case.
+     */
+    @Test(timeout = 120000)
+    public void shouldExplodeLargeWarInConstantMemory() throws IOException {
+        int deflatedSize = 100 * MB;
+        int storedSize = 16 * MB;
+        long crc = writeLargeWar(deflatedSize, storedSize);
+
+        long buffers = BufferPool.getInstance().getAllocated();
+        long heapBytes = getAllocatedBytes();
+        new ZipExploder().processFile(war.getPath(), explodedDir.getPath());
+        heapBytes = getAllocatedBytes() - heapBytes;
+        assertTrue(BufferPool.getInstance().getAllocated() - buffers <= 1);
+        assertTrue("allocated " + heapBytes + " bytes", heapBytes < 8 * MB);
+
+        File deflated = new File(explodedDir, "WEB-INF/lib/deflated.jar");
+        assertEquals(deflatedSize, deflated.length());
+        assertEquals(crc(deflatedSize), crc(deflated));
+
+        File stored = new File(explodedDir, "WEB-INF/lib/stored.jar");
+        assertEquals(storedSize, stored.length());
+        assertEquals(crc, crc(stored));
+    }
+
+    private void writeWar(String... namesAndContents) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zos.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zos.write(namesAndContents[i + 1].getBytes());
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+    }
+
+    private String read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream is = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += is.read(bytes, offset, bytes.length - offset);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return new String(bytes);
+    }
+
+    private long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunThreadBean =
+            (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(sunThreadBean.isThreadAllocatedMemorySupported());
+        return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long writeLargeWar(int deflatedSize, int storedSize) throws IOException {
+        long storedCrc = crc(storedSize);
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/deflated.jar"));
+            writeBlocks(zos, deflatedSize);
+            zos.closeEntry();
+
+            ZipEntry entry = new ZipEntry("WEB-INF/lib/stored.jar");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(storedSize);
+            entry.setCompressedSize(storedSize);
+            entry.setCrc(storedCrc);
+            zos.putNextEntry(entry);
+            writeBlocks(zos, storedSize);
+            zos.closeEntry();
+        }
+        finally {
+            zos.close();
+        }
+        return storedCrc;
+    }
+
+    private void writeBlocks(ZipOutputStream zos, int size) throws IOException {
+        for (int written = 0; written < size; written += block.length) {
+            zos.write(block, 0, Math.min(block.length, size - written));
+        }
+    }
+
+    private long crc(int size) {
+        CRC32 crc = new CRC32();
+        for (int written = 0; written < size; written += block.length) {
+            crc.update(block, 0, Math.min(block.length, size - written));
+        }
+        return crc.getValue();
+    }
+
+    private long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream is = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return crc.getValue();
+    }
+}